@@ -1,22 +1,87 @@
 package org.codelibs.elasticsearch.df;
 
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Supplier;
 
+import org.codelibs.elasticsearch.df.action.ExportAction;
+import org.codelibs.elasticsearch.df.action.ExportTask;
+import org.codelibs.elasticsearch.df.action.TransportExportAction;
 import org.codelibs.elasticsearch.df.rest.RestDataAction;
+import org.codelibs.elasticsearch.df.rest.RestDataJobAction;
+import org.codelibs.elasticsearch.df.rest.RestDataStatsAction;
+import org.codelibs.elasticsearch.df.service.ExportCache;
+import org.codelibs.elasticsearch.df.service.ExportJobService;
+import org.codelibs.elasticsearch.df.service.ExportScheduler;
+import org.codelibs.elasticsearch.df.service.SpillDirectory;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry.Entry;
 import org.elasticsearch.common.settings.ClusterSettings;
 import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
 import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.repositories.RepositoriesService;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 
 public class DataFormatPlugin extends Plugin implements ActionPlugin {
+
+    public static final String EXPORT_THREAD_POOL_NAME = "dataformat_export";
+
+    public static final String COMPRESS_THREAD_POOL_NAME = "dataformat_compress";
+
+    private static final int EXPORT_QUEUE_SIZE = 100;
+
+    private ExportJobService jobService;
+
+    private ExportScheduler scheduler;
+
+    private ExportCache cache;
+
+    private SpillDirectory spill;
+
+    @Override
+    public Collection<Object> createComponents(final Client client, final ClusterService clusterService,
+            final ThreadPool threadPool, final ResourceWatcherService resourceWatcherService,
+            final ScriptService scriptService, final NamedXContentRegistry xContentRegistry,
+            final Environment environment, final NodeEnvironment nodeEnvironment,
+            final NamedWriteableRegistry namedWriteableRegistry,
+            final IndexNameExpressionResolver indexNameExpressionResolver,
+            final Supplier<RepositoriesService> repositoriesServiceSupplier) {
+        jobService = new ExportJobService(clusterService.getSettings(), threadPool);
+        scheduler = new ExportScheduler(clusterService.getSettings());
+        spill = new SpillDirectory(clusterService.getSettings(), environment.tmpFile().resolve("dataformat"),
+                threadPool);
+        cache = new ExportCache(clusterService.getSettings(), spill.getDirectory().resolve("cache"));
+        return Arrays.asList(jobService, scheduler, cache, spill);
+    }
+
+    @Override
+    public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+        return Collections.singletonList(new ActionHandler<>(ExportAction.INSTANCE, TransportExportAction.class));
+    }
+
     @Override
     public List<RestHandler> getRestHandlers(final Settings settings,
             final RestController restController, final ClusterSettings clusterSettings,
@@ -24,6 +89,54 @@ public class DataFormatPlugin extends Plugin implements ActionPlugin {
             final SettingsFilter settingsFilter,
             final IndexNameExpressionResolver indexNameExpressionResolver,
             final Supplier<DiscoveryNodes> nodesInCluster) {
-        return Arrays.asList(new RestDataAction(settings, restController));
+        final RestDataAction dataAction = new RestDataAction(settings, restController, jobService, cache, spill);
+        return Arrays.asList(dataAction,
+                new RestDataJobAction(dataAction.getDefaultLimit(), jobService),
+                new RestDataStatsAction(scheduler, cache, spill));
+    }
+
+    @Override
+    public List<Entry> getNamedWriteables() {
+        return Collections.singletonList(
+                new Entry(Task.Status.class, ExportTask.Status.NAME, ExportTask.Status::new));
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return Arrays.asList(ExportJobService.KEEP_ALIVE_SETTING,
+                ExportScheduler.MAX_CONCURRENT_SETTING,
+                ExportScheduler.MAX_QUEUED_SETTING,
+                ExportScheduler.FAIRNESS_SETTING,
+                ExportCache.SIZE_SETTING,
+                ExportCache.EXPIRE_SETTING,
+                SpillDirectory.PATH_SETTING,
+                SpillDirectory.QUOTA_SETTING,
+                SpillDirectory.LOW_WATERMARK_SETTING,
+                SpillDirectory.HIGH_WATERMARK_SETTING,
+                SpillDirectory.SWEEP_INTERVAL_SETTING);
+    }
+
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(final Settings settings) {
+        final int processors = EsExecutors.allocatedProcessors(settings);
+        return Arrays.asList(
+                new FixedExecutorBuilder(settings, EXPORT_THREAD_POOL_NAME, Math.max(1, processors / 2),
+                        EXPORT_QUEUE_SIZE, "thread_pool." + EXPORT_THREAD_POOL_NAME),
+                // bounded by the blocks in flight of each stream
+                new FixedExecutorBuilder(settings, COMPRESS_THREAD_POOL_NAME, processors, -1,
+                        "thread_pool." + COMPRESS_THREAD_POOL_NAME));
+    }
+
+    @Override
+    public void close() {
+        if (jobService != null) {
+            jobService.close();
+        }
+        if (cache != null) {
+            cache.close();
+        }
+        if (spill != null) {
+            spill.close();
+        }
     }
 }
@@ -0,0 +1,14 @@
+package org.codelibs.elasticsearch.df.action;
+
+import org.elasticsearch.action.ActionType;
+
+public class ExportAction extends ActionType<ExportResponse> {
+
+    public static final ExportAction INSTANCE = new ExportAction();
+
+    public static final String NAME = "indices:data/read/dataformat/export";
+
+    private ExportAction() {
+        super(NAME, ExportResponse::new);
+    }
+}
@@ -0,0 +1,150 @@
+package org.codelibs.elasticsearch.df.action;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.codelibs.elasticsearch.df.content.DataContent;
+import org.codelibs.elasticsearch.df.search.Paginator;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.IndicesRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+
+/**
+ * Export prepared by the REST layer. It holds the paginators and the output
+ * file of this node, so it is local-only: {@link TransportExportAction}
+ * registers no transport handler and the request is never serialized.
+ */
+public class ExportRequest extends ActionRequest implements IndicesRequest {
+
+    private final DataContent dataContent;
+
+    private final List<Paginator> paginators;
+
+    private final File outputFile;
+
+    private long maxBytes = -1;
+
+    private String tenant = "_none";
+
+    private boolean spliceHeader = false;
+
+    private String[] indices = Strings.EMPTY_ARRAY;
+
+    private IndicesOptions indicesOptions = IndicesOptions.strictExpandOpenAndForbidClosed();
+
+    public ExportRequest(final DataContent dataContent, final List<Paginator> paginators, final File outputFile) {
+        this.dataContent = dataContent;
+        this.paginators = paginators;
+        this.outputFile = outputFile;
+    }
+
+    public DataContent getDataContent() {
+        return dataContent;
+    }
+
+    public List<Paginator> getPaginators() {
+        return paginators;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * Abort the export when the output exceeds the given size.
+     *
+     * @param maxBytes the size in bytes, or -1 for no limit
+     * @return this request
+     */
+    public ExportRequest maxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Set the fairness group (user or index) of the export.
+     *
+     * @param tenant the group name
+     * @return this request
+     */
+    public ExportRequest tenant(final String tenant) {
+        this.tenant = tenant;
+        return this;
+    }
+
+    public String tenant() {
+        return tenant;
+    }
+
+    /**
+     * Allow a header to be appended after the body, for an output file
+     * which is only read by this plugin.
+     *
+     * @param spliceHeader
+     * @return this request
+     */
+    public ExportRequest spliceHeader(final boolean spliceHeader) {
+        this.spliceHeader = spliceHeader;
+        return this;
+    }
+
+    public boolean spliceHeader() {
+        return spliceHeader;
+    }
+
+    /**
+     * Set the indices which are searched by the paginators.
+     *
+     * @param indices
+     * @param indicesOptions
+     * @return this request
+     */
+    public ExportRequest indices(final String[] indices, final IndicesOptions indicesOptions) {
+        this.indices = indices;
+        this.indicesOptions = indicesOptions;
+        return this;
+    }
+
+    @Override
+    public String[] indices() {
+        return indices;
+    }
+
+    @Override
+    public IndicesOptions indicesOptions() {
+        return indicesOptions;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        return null;
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        throw TransportExportAction.localOnly();
+    }
+
+    @Override
+    public Task createTask(final long id, final String type, final String action, final TaskId parentTaskId,
+            final Map<String, String> headers) {
+        return new ExportTask(id, type, action, getDescription(), parentTaskId, headers, outputFile);
+    }
+
+    @Override
+    public String getDescription() {
+        return "format[" + dataContent.getContentType().name().toLowerCase(Locale.ROOT) + "], paginators[" + paginators.size() + "]";
+    }
+}
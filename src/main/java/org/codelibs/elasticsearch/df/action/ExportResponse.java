@@ -0,0 +1,52 @@
+package org.codelibs.elasticsearch.df.action;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+public class ExportResponse extends ActionResponse {
+
+    private final long rows;
+
+    private final long bytes;
+
+    private final long headerOffset;
+
+    public ExportResponse(final long rows, final long bytes, final long headerOffset) {
+        this.rows = rows;
+        this.bytes = bytes;
+        this.headerOffset = headerOffset;
+    }
+
+    public ExportResponse(final StreamInput in) throws IOException {
+        super(in);
+        rows = in.readVLong();
+        bytes = in.readVLong();
+        headerOffset = in.readZLong();
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        out.writeVLong(rows);
+        out.writeVLong(bytes);
+        out.writeZLong(headerOffset);
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the position of a header appended after the body of the
+     *         output file, or -1
+     */
+    public long getHeaderOffset() {
+        return headerOffset;
+    }
+}
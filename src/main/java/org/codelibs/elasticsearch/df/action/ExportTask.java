@@ -0,0 +1,187 @@
+package org.codelibs.elasticsearch.df.action;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.tasks.CancellableTask;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+
+/**
+ * Task of a running export. Its status reports rows and bytes written so
+ * far and an estimated time to completion. Cancelling it, or closing the
+ * HTTP channel of a synchronous export, stops the pagination.
+ */
+public class ExportTask extends CancellableTask {
+
+    private final File outputFile;
+
+    private final AtomicLong rows = new AtomicLong();
+
+    private final AtomicLong totalHits = new AtomicLong();
+
+    private volatile boolean totalHitsAccurate = true;
+
+    private Runnable cancelListener;
+
+    public ExportTask(final long id, final String type, final String action, final String description,
+            final TaskId parentTask, final Map<String, String> headers, final File outputFile) {
+        super(id, type, action, description, parentTask, headers);
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Record a written page.
+     *
+     * @param hits hits of the page
+     * @param firstPage true if it is the first page of a paginator
+     */
+    public void onPage(final SearchHits hits, final boolean firstPage) {
+        if (firstPage) {
+            final TotalHits total = hits.getTotalHits();
+            if (total == null || total.relation != TotalHits.Relation.EQUAL_TO) {
+                totalHitsAccurate = false;
+            } else {
+                totalHits.addAndGet(total.value);
+            }
+        }
+        rows.addAndGet(hits.getHits().length);
+    }
+
+    /**
+     * Set the callback invoked on cancellation. It is invoked immediately if
+     * the task has already been cancelled.
+     *
+     * @param listener
+     */
+    public void setCancelListener(final Runnable listener) {
+        synchronized (this) {
+            cancelListener = listener;
+            if (!isCancelled()) {
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    @Override
+    protected void onCancelled() {
+        final Runnable listener;
+        synchronized (this) {
+            listener = cancelListener;
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public boolean shouldCancelChildrenOnCancellation() {
+        return true;
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getBytes() {
+        return outputFile.length();
+    }
+
+    @Override
+    public Status getStatus() {
+        final long currentRows = rows.get();
+        final long total = totalHitsAccurate ? totalHits.get() : -1;
+        final long runningTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - getStartTimeNanos());
+        final long eta;
+        if (currentRows > 0 && total >= currentRows) {
+            eta = (long) ((double) runningTime * (total - currentRows) / currentRows);
+        } else {
+            eta = -1;
+        }
+        return new Status(currentRows, total, getBytes(), eta);
+    }
+
+    public static class Status implements Task.Status {
+
+        public static final String NAME = "dataformat_export";
+
+        private final long rows;
+
+        private final long totalHits;
+
+        private final long bytes;
+
+        private final long etaInMillis;
+
+        public Status(final long rows, final long totalHits, final long bytes, final long etaInMillis) {
+            this.rows = rows;
+            this.totalHits = totalHits;
+            this.bytes = bytes;
+            this.etaInMillis = etaInMillis;
+        }
+
+        public Status(final StreamInput in) throws IOException {
+            rows = in.readVLong();
+            totalHits = in.readLong();
+            bytes = in.readVLong();
+            etaInMillis = in.readLong();
+        }
+
+        @Override
+        public void writeTo(final StreamOutput out) throws IOException {
+            out.writeVLong(rows);
+            out.writeLong(totalHits);
+            out.writeVLong(bytes);
+            out.writeLong(etaInMillis);
+        }
+
+        @Override
+        public String getWriteableName() {
+            return NAME;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getTotalHits() {
+            return totalHits;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getEtaInMillis() {
+            return etaInMillis;
+        }
+
+        @Override
+        public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+            builder.startObject();
+            innerToXContent(builder);
+            return builder.endObject();
+        }
+
+        public XContentBuilder innerToXContent(final XContentBuilder builder) throws IOException {
+            builder.field("rows", rows);
+            if (totalHits >= 0) {
+                builder.field("total_hits", totalHits);
+            }
+            builder.field("bytes", bytes);
+            if (etaInMillis >= 0) {
+                builder.field("eta_in_millis", etaInMillis);
+            }
+            return builder;
+        }
+    }
+}
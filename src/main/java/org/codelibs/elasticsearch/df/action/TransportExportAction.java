@@ -0,0 +1,54 @@
+package org.codelibs.elasticsearch.df.action;
+
+import org.codelibs.elasticsearch.df.search.Paginator;
+import org.codelibs.elasticsearch.df.service.ExportScheduler;
+import org.codelibs.elasticsearch.df.service.SpillDirectory;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.TransportAction;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+import org.elasticsearch.transport.TransportService;
+
+/**
+ * Runs an export on the local node. Unlike a HandledTransportAction, it
+ * registers no transport handler, so it cannot be called from another node.
+ */
+public class TransportExportAction extends TransportAction<ExportRequest, ExportResponse> {
+
+    private final TransportService transportService;
+
+    private final ExportScheduler scheduler;
+
+    private final SpillDirectory spill;
+
+    @Inject
+    public TransportExportAction(final TransportService transportService, final ActionFilters actionFilters,
+            final ExportScheduler scheduler, final SpillDirectory spill) {
+        super(ExportAction.NAME, actionFilters, transportService.getTaskManager());
+        this.transportService = transportService;
+        this.scheduler = scheduler;
+        this.spill = spill;
+    }
+
+    /**
+     * @return the failure of an attempt to send a request of this action to
+     *         another node
+     */
+    static UnsupportedOperationException localOnly() {
+        return new UnsupportedOperationException("local-only action [" + ExportAction.NAME + "]");
+    }
+
+    @Override
+    protected void doExecute(final Task task, final ExportRequest request, final ActionListener<ExportResponse> listener) {
+        final ExportTask exportTask = (ExportTask) task;
+        final TaskId taskId = new TaskId(transportService.getLocalNode().getId(), task.getId());
+        for (final Paginator paginator : request.getPaginators()) {
+            paginator.setParentTask(taskId);
+        }
+        scheduler.execute(exportTask, request.tenant(), listener, l -> request.getDataContent().write(request, spill,
+                exportTask, ActionListener.map(l, headerOffset -> new ExportResponse(exportTask.getRows(),
+                        exportTask.getBytes(), headerOffset))));
+    }
+}
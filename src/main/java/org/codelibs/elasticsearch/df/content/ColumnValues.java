@@ -0,0 +1,114 @@
+package org.codelibs.elasticsearch.df.content;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Conversions of source values to the typed columns of binary formats.
+ * Values which cannot be converted are null, as they are not indexed by a
+ * field with {@code ignore_malformed}.
+ */
+public final class ColumnValues {
+    private ColumnValues() {
+    }
+
+    /**
+     * @param value
+     * @return true if the value is an array of several values
+     */
+    public static boolean isMultiple(final Object value) {
+        return value instanceof List && ((List<?>) value).size() > 1;
+    }
+
+    /**
+     * Unwrap a single value from an array.
+     *
+     * @param name the column name
+     * @param value
+     * @param multiValued true if the column accepts several values
+     * @return null for an empty array, the element of a single value array,
+     *         or the value
+     * @throws IllegalArgumentException for several values in a column which
+     *             does not accept them
+     */
+    public static Object single(final String name, final Object value, final boolean multiValued) {
+        if (!(value instanceof List)) {
+            return value;
+        }
+        final List<?> list = (List<?>) value;
+        if (list.isEmpty()) {
+            return null;
+        } else if (list.size() == 1) {
+            return list.get(0);
+        } else if (!multiValued) {
+            throw new IllegalArgumentException("The field " + name
+                    + " has multiple values, which cannot be written to a column of a single value.");
+        }
+        return value;
+    }
+
+    /**
+     * @param value not null
+     * @return the long value
+     * @throws NumberFormatException
+     */
+    public static long toLong(final Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        final String text = value.toString();
+        try {
+            return Long.parseLong(text);
+        } catch (final NumberFormatException e) {
+            // coerced like the field mapper does
+            return (long) Double.parseDouble(text);
+        }
+    }
+
+    /**
+     * @param value not null
+     * @return the double value
+     * @throws NumberFormatException
+     */
+    public static double toDouble(final Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.parseDouble(value.toString());
+    }
+
+    /**
+     * @param value not null
+     * @return the boolean value, or null if malformed
+     */
+    public static Boolean toBoolean(final Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        final String text = value.toString();
+        if ("true".equals(text)) {
+            return Boolean.TRUE;
+        } else if ("false".equals(text)) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * @param value not null
+     * @return the text, with objects and arrays as JSON
+     * @throws IOException
+     */
+    public static String toText(final Object value) throws IOException {
+        if (value instanceof String) {
+            return (String) value;
+        } else if (value instanceof Map || value instanceof List) {
+            return Strings.toString(JsonXContent.contentBuilder().value(value));
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package org.codelibs.elasticsearch.df.content;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPOutputStream;
+
+import org.elasticsearch.SpecialPermission;
+
+import io.airlift.compress.zstd.ZstdOutputStream;
+
+/**
+ * Compression of the output file. Compressed outputs are sent with
+ * {@code Content-Encoding}.
+ */
+public enum Compression {
+    NONE(null) {
+        @Override
+        public OutputStream wrap(final OutputStream out, final Executor executor, final int threads) {
+            return out;
+        }
+    },
+    GZIP("gzip") {
+        @Override
+        public OutputStream wrap(final OutputStream out, final Executor executor, final int threads)
+                throws IOException {
+            if (threads > 1) {
+                return new ParallelGzipOutputStream(out, executor, threads, false);
+            }
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+    },
+    BGZF("gzip") {
+        @Override
+        public OutputStream wrap(final OutputStream out, final Executor executor, final int threads)
+                throws IOException {
+            return new ParallelGzipOutputStream(out, threads > 1 ? executor : Runnable::run, threads, true);
+        }
+    },
+    ZSTD("zstd") {
+        @Override
+        public OutputStream wrap(final OutputStream out, final Executor executor, final int threads)
+                throws IOException {
+            final SecurityManager sm = System.getSecurityManager();
+            if (sm != null) {
+                sm.checkPermission(new SpecialPermission());
+            }
+            try {
+                // the pure java implementation uses sun.misc.Unsafe
+                return AccessController.doPrivileged(
+                        (PrivilegedExceptionAction<OutputStream>) () -> new ZstdOutputStream(out));
+            } catch (final PrivilegedActionException e) {
+                throw (IOException) e.getException();
+            }
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String encoding;
+
+    Compression(final String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * @return the value of Content-Encoding, or null if not compressed
+     */
+    public String encoding() {
+        return encoding;
+    }
+
+    /**
+     * Wrap the stream of the output file. Closing the returned stream
+     * completes the compressed data and closes the given stream.
+     *
+     * @param out the stream of the output file
+     * @param executor runs block compression if threads is greater than 1
+     * @param threads blocks compressed concurrently
+     * @return the compressing stream
+     * @throws IOException
+     */
+    public abstract OutputStream wrap(OutputStream out, Executor executor, int threads) throws IOException;
+
+    public static Compression of(final String name) {
+        if (name == null || name.isEmpty()) {
+            return NONE;
+        }
+        final String value = name.trim().toLowerCase(Locale.ROOT);
+        for (final Compression compression : values()) {
+            // encoding names map to the first codec, e.g. gzip to GZIP
+            if (value.equals(compression.encoding) || value.equals(compression.name().toLowerCase(Locale.ROOT))) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression: " + name);
+    }
+}
@@ -0,0 +1,37 @@
+package org.codelibs.elasticsearch.df.content;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * Compression stage between a content writer and its output file.
+ */
+public class Compressor {
+
+    private final Compression compression;
+
+    private final Executor executor;
+
+    private final int threads;
+
+    public Compressor(final Compression compression, final Executor executor, final int threads) {
+        this.compression = compression;
+        this.executor = executor;
+        this.threads = threads;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @param out the stream of the output file
+     * @return the compressing stream
+     * @throws IOException
+     * @see Compression#wrap(OutputStream, Executor, int)
+     */
+    public OutputStream wrap(final OutputStream out) throws IOException {
+        return compression.wrap(out, executor, threads);
+    }
+}
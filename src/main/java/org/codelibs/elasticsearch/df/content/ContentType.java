@@ -1,8 +1,12 @@
 package org.codelibs.elasticsearch.df.content;
 
+import org.codelibs.elasticsearch.df.content.arrow.ArrowContent;
+import org.codelibs.elasticsearch.df.content.avro.AvroContent;
 import org.codelibs.elasticsearch.df.content.csv.CsvContent;
 import org.codelibs.elasticsearch.df.content.json.JsonContent;
 import org.codelibs.elasticsearch.df.content.json.JsonListContent;
+import org.codelibs.elasticsearch.df.content.json.NdjsonContent;
+import org.codelibs.elasticsearch.df.content.parquet.ParquetContent;
 import org.codelibs.elasticsearch.df.content.xls.XlsContent;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.rest.RestRequest;
@@ -117,6 +121,90 @@ public enum ContentType {
             }
             return index + ".json";
         }
+    },
+    NDJSON(60) {
+        @Override
+        public String contentType() {
+            return "application/x-ndjson";
+        }
+
+        @Override
+        public DataContent dataContent(final Client client,
+                final RestRequest request) {
+            return new NdjsonContent(client, request, this);
+        }
+
+        @Override
+        public String fileName(final RestRequest request) {
+            final String index = request.param("index");
+            if (index == null) {
+                return "_all.ndjson";
+            }
+            return index + ".ndjson";
+        }
+    },
+    PARQUET(70) {
+        @Override
+        public String contentType() {
+            return "application/vnd.apache.parquet";
+        }
+
+        @Override
+        public DataContent dataContent(final Client client,
+                final RestRequest request) {
+            return new ParquetContent(client, request, this);
+        }
+
+        @Override
+        public String fileName(final RestRequest request) {
+            final String index = request.param("index");
+            if (index == null) {
+                return "_all.parquet";
+            }
+            return index + ".parquet";
+        }
+    },
+    ARROW(80) {
+        @Override
+        public String contentType() {
+            return "application/vnd.apache.arrow.stream";
+        }
+
+        @Override
+        public DataContent dataContent(final Client client,
+                final RestRequest request) {
+            return new ArrowContent(client, request, this);
+        }
+
+        @Override
+        public String fileName(final RestRequest request) {
+            final String index = request.param("index");
+            if (index == null) {
+                return "_all.arrows";
+            }
+            return index + ".arrows";
+        }
+    },
+    AVRO(90) {
+        @Override
+        public String contentType() {
+            return "application/avro";
+        }
+
+        @Override
+        public DataContent dataContent(final Client client,
+                final RestRequest request) {
+            return new AvroContent(client, request, this);
+        }
+
+        @Override
+        public String fileName(final RestRequest request) {
+            final String index = request.param("index");
+            if (index == null) {
+                return "_all.avro";
+            }
+            return index + ".avro";
+        }
     };
 
     private int index;
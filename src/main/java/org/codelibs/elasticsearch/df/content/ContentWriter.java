@@ -0,0 +1,96 @@
+package org.codelibs.elasticsearch.df.content;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.codelibs.elasticsearch.df.util.CountingOutputStream;
+import org.elasticsearch.search.SearchHits;
+
+/**
+ * Output of one export. Pages are handed over one at a time and in order
+ * by {@link PagePipeline}, so implementations need no synchronization.
+ */
+public abstract class ContentWriter {
+
+    protected final File outputFile;
+
+    protected final Compressor compressor;
+
+    private CountingOutputStream outputStream;
+
+    private boolean spliceHeader = false;
+
+    private long headerOffset = -1;
+
+    protected ContentWriter(final File outputFile, final Compressor compressor) {
+        this.outputFile = outputFile;
+        this.compressor = compressor;
+    }
+
+    /**
+     * Open the output file, compressed if requested. Bytes written to the
+     * file are reported by {@link #getBytesWritten()}.
+     *
+     * @return the output stream
+     * @throws IOException
+     */
+    protected OutputStream openOutputStream() throws IOException {
+        outputStream = new CountingOutputStream(new FileOutputStream(outputFile));
+        return compressor.wrap(outputStream);
+    }
+
+    /**
+     * @return bytes flushed to the output file so far, after compression
+     */
+    public long getBytesWritten() {
+        return outputStream == null ? 0 : outputStream.getCount();
+    }
+
+    /**
+     * Allow a header known only at the end to be appended after the body
+     * instead of rewriting the body. Such an output must be read with
+     * {@link #getHeaderOffset()}.
+     *
+     * @param spliceHeader
+     */
+    public void setSpliceHeader(final boolean spliceHeader) {
+        this.spliceHeader = spliceHeader;
+    }
+
+    protected boolean isSpliceHeader() {
+        return spliceHeader;
+    }
+
+    /**
+     * @return the position of a header appended after the body, or -1
+     */
+    public long getHeaderOffset() {
+        return headerOffset;
+    }
+
+    protected void setHeaderOffset(final long headerOffset) {
+        this.headerOffset = headerOffset;
+    }
+
+    /**
+     * Write hits of one page.
+     *
+     * @param hits
+     * @throws IOException
+     */
+    public abstract void write(SearchHits hits) throws IOException;
+
+    /**
+     * Complete the output after the last page.
+     *
+     * @throws IOException
+     */
+    public abstract void finish() throws IOException;
+
+    /**
+     * Release resources when the export fails.
+     */
+    public abstract void close();
+}
@@ -1,29 +1,218 @@
 package org.codelibs.elasticsearch.df.content;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.codelibs.elasticsearch.df.DataFormatPlugin;
+import org.codelibs.elasticsearch.df.action.ExportRequest;
+import org.codelibs.elasticsearch.df.action.ExportTask;
+import org.codelibs.elasticsearch.df.service.SpillDirectory;
+import org.codelibs.elasticsearch.df.util.MapUtils;
+import org.codelibs.elasticsearch.df.util.RequestUtil;
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsRequest;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.cluster.metadata.MappingMetadata;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.search.SearchHit;
 
 public abstract class DataContent {
 
+    public static final String SCHEMA_DYNAMIC = "dynamic";
+
+    public static final String SCHEMA_MAPPING = "mapping";
+
     protected RestRequest request;
 
     protected Client client;
 
     protected ContentType contentType;
 
+    protected int prefetch;
+
+    protected boolean ordered;
+
+    protected long maxRows;
+
+    protected Compression compression;
+
+    protected int compressThreads;
+
+    protected boolean mappingSchema;
+
+    protected boolean docValues;
+
     public DataContent(final Client client, final RestRequest request, final ContentType contentType) {
         this.client = client;
         this.request = request;
         this.contentType = contentType;
+        this.prefetch = RequestUtil.getPrefetch(request);
+        this.ordered = request.paramAsBoolean("slices.ordered", false);
+        this.maxRows = RequestUtil.getMaxRows(request);
+        this.compression = RequestUtil.getCompression(request);
+        this.compressThreads = RequestUtil.getCompressThreads(request);
+        this.mappingSchema = SCHEMA_MAPPING.equals(RequestUtil.getSchema(request));
+        this.docValues = RequestUtil.isDocValues(request);
     }
 
-    public abstract void write(File outputFile, SearchResponse response, RestChannel channel,
-            ActionListener<Void> listener);
+    /**
+     * Write all pages of the paginators to the output file of the request.
+     *
+     * @param request
+     * @param spill checks the disk space while writing
+     * @param task
+     * @param listener receives the header offset of the output, or -1
+     */
+    public void write(final ExportRequest request, final SpillDirectory spill,
+            final ExportTask task, final ActionListener<Long> listener) {
+        try {
+            prepare(ActionListener.wrap(v -> start(request, spill, task, listener),
+                    e -> listener.onFailure(new ElasticsearchException("Failed to prepare the export.", e))));
+        } catch (final Exception e) {
+            listener.onFailure(new ElasticsearchException("Failed to prepare the export.", e));
+        }
+    }
+
+    private void start(final ExportRequest request, final SpillDirectory spill,
+            final ExportTask task, final ActionListener<Long> listener) {
+        try {
+            final ContentWriter writer = createWriter(request.getOutputFile());
+            writer.setSpliceHeader(request.spliceHeader());
+            final PagePipeline pipeline = new PagePipeline(
+                    writer, task, listener, prefetch, ordered);
+            pipeline.setLimits(maxRows, request.maxBytes());
+            pipeline.setSpillDirectory(spill);
+            pipeline.start(request.getPaginators(), client.threadPool()
+                    .executor(DataFormatPlugin.EXPORT_THREAD_POOL_NAME));
+        } catch (final EsRejectedExecutionException e) {
+            listener.onFailure(e);
+        } catch (final Exception e) {
+            listener.onFailure(new ElasticsearchException("Failed to write data.",
+                    e));
+        }
+    }
+
+    /**
+     * Prepare the export before the first page is fetched.
+     *
+     * @param listener
+     */
+    protected void prepare(final ActionListener<Void> listener) {
+        listener.onResponse(null);
+    }
+
+    /**
+     * Resolve the columns of the target indices from their mappings. Fields
+     * which are not in the source, such as multi-fields and aliases, are
+     * skipped.
+     *
+     * @param listener receives the ordered field names
+     */
+    protected void resolveSchema(final ActionListener<Set<String>> listener) {
+        resolveMapping(ActionListener.map(listener, Map::keySet));
+    }
+
+    /**
+     * Resolve the columns of the target indices with their field types. A
+     * field mapped with different types in several indices is a
+     * {@code keyword}.
+     *
+     * @param listener receives the field types by ordered field name
+     */
+    protected void resolveMapping(final ActionListener<Map<String, String>> listener) {
+        final GetMappingsRequest mappingsRequest = new GetMappingsRequest()
+                .indices(Strings.splitStringByCommaToArray(request.param("index")));
+        client.admin().indices().getMappings(mappingsRequest, ActionListener.map(listener, response -> {
+            final Map<String, String> fields = new LinkedHashMap<>();
+            for (final Iterator<ImmutableOpenMap<String, MappingMetadata>> it = response.mappings().valuesIt(); it
+                    .hasNext();) {
+                for (final Iterator<MappingMetadata> mappings = it.next().valuesIt(); mappings.hasNext();) {
+                    addFields("", mappings.next().sourceAsMap(), fields);
+                }
+            }
+            return fields;
+        }));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addFields(final String prefix, final Map<String, Object> mapping,
+            final Map<String, String> fields) {
+        final Object properties = mapping.get("properties");
+        if (!(properties instanceof Map)) {
+            return;
+        }
+        for (final Map.Entry<String, Object> entry : ((Map<String, Object>) properties).entrySet()) {
+            final Map<String, Object> field = (Map<String, Object>) entry.getValue();
+            final Object type = field.get("type");
+            if ("alias".equals(type)) {
+                continue;
+            }
+            if (type == null || "object".equals(type)) {
+                addFields(prefix + entry.getKey() + ".", field, fields);
+            } else {
+                // nested objects are one column, like arrays
+                fields.merge(prefix + entry.getKey(), type.toString(),
+                        (oldType, newType) -> oldType.equals(newType) ? oldType : "keyword");
+            }
+        }
+    }
+
+    /**
+     * @return the source fields used by the output, or null for the whole
+     *         source
+     */
+    public String[] getSourceIncludes() {
+        return null;
+    }
+
+    public boolean isDocValues() {
+        return docValues;
+    }
+
+    /**
+     * @return the fields to read from doc values instead of the source, or
+     *         null if the output does not support it
+     */
+    public String[] getDocValueFields() {
+        return null;
+    }
+
+    /**
+     * Get the values of a hit by flattened field name, from doc values or
+     * from the source.
+     *
+     * @param hit
+     * @return the values
+     */
+    protected Map<String, Object> getFlatMap(final SearchHit hit) {
+        final Map<String, Object> dataMap = new HashMap<>();
+        if (docValues) {
+            for (final DocumentField field : hit.getFields().values()) {
+                final List<Object> values = field.getValues();
+                dataMap.put(field.getName(), values.size() == 1 ? values.get(0) : values);
+            }
+        } else {
+            MapUtils.convertToFlatMap("", hit.getSourceAsMap(), dataMap);
+        }
+        return dataMap;
+    }
+
+    protected abstract ContentWriter createWriter(File outputFile);
+
+    protected Compressor createCompressor() {
+        return new Compressor(compression, client.threadPool()
+                .executor(DataFormatPlugin.COMPRESS_THREAD_POOL_NAME), compressThreads);
+    }
 
     public RestRequest getRequest() {
         return request;
@@ -32,4 +221,8 @@ public abstract class DataContent {
     public ContentType getContentType() {
         return contentType;
     }
-}
\ No newline at end of file
+
+    public Compression getCompression() {
+        return compression;
+    }
+}
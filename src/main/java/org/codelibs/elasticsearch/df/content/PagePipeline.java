@@ -0,0 +1,525 @@
+package org.codelibs.elasticsearch.df.content;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.df.action.ExportTask;
+import org.codelibs.elasticsearch.df.search.Paginator;
+import org.codelibs.elasticsearch.df.service.SpillDirectory;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.io.stream.InputStreamStreamInput;
+import org.elasticsearch.common.io.stream.OutputStreamStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.tasks.TaskCancelledException;
+
+/**
+ * Feeds search pages to a {@link ContentWriter}. The next page is requested
+ * before the current page is written, so fetching and serialization
+ * overlap. At most {@code prefetch} pages per cursor are buffered ahead of
+ * the writer.
+ *
+ * With several paginators (sliced scroll), every slice is fetched by its
+ * own cursor concurrently. Pages are written in arrival order, or slice by
+ * slice if {@code ordered} is set. In ordered mode, the slices after the
+ * one being written keep fetching, so that their scroll contexts do not
+ * expire, and their pages beyond {@code prefetch} are spilled to a
+ * temporary file until the slice is written.
+ *
+ * The export fails as soon as more than {@code maxRows} rows or
+ * {@code maxBytes} bytes are written, or when the disk of the output runs
+ * out of space.
+ *
+ * Pages are written on the export executor, never on the search thread
+ * which delivered them. Starting a pipeline is rejected when the executor
+ * queue is full; pages of a started pipeline are always accepted.
+ */
+public class PagePipeline {
+    private static final Logger logger = LogManager.getLogger(PagePipeline.class);
+
+    private final ContentWriter writer;
+
+    private final ExportTask task;
+
+    // receives the header offset of the output
+    private final ActionListener<Long> listener;
+
+    private final int prefetch;
+
+    private final boolean ordered;
+
+    private long maxRows = -1;
+
+    private long maxBytes = -1;
+
+    private SpillDirectory spill;
+
+    private final Deque<Cursor> arrivals = new ArrayDeque<>();
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AbstractRunnable drainTask = new AbstractRunnable() {
+        @Override
+        public boolean isForceExecution() {
+            return true;
+        }
+
+        @Override
+        protected void doRun() throws Exception {
+            drain();
+        }
+
+        @Override
+        public void onRejection(final Exception e) {
+            // the executor is shut down
+            onFailure(e);
+        }
+
+        @Override
+        public void onFailure(final Exception e) {
+            synchronized (PagePipeline.this) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            drain();
+        }
+    };
+
+    private Executor executor;
+
+    private Cursor[] cursors;
+
+    private int currentCursor = 0;
+
+    private Cursor writingCursor;
+
+    private int activeCursors;
+
+    private boolean done = false;
+
+    private Exception failure;
+
+    private long currentCount = 0;
+
+    public PagePipeline(final ContentWriter writer, final ExportTask task,
+            final ActionListener<Long> listener, final int prefetch, final boolean ordered) {
+        this.writer = writer;
+        this.task = task;
+        this.listener = listener;
+        this.prefetch = prefetch;
+        this.ordered = ordered;
+    }
+
+    public void setLimits(final long maxRows, final long maxBytes) {
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+    }
+
+    public void setSpillDirectory(final SpillDirectory spill) {
+        this.spill = spill;
+    }
+
+    public void start(final List<Paginator> paginators, final Executor executor) {
+        synchronized (this) {
+            this.executor = executor;
+            cursors = new Cursor[paginators.size()];
+            for (int i = 0; i < cursors.length; i++) {
+                cursors[i] = new Cursor(i, paginators.get(i));
+                cursors[i].fetching = true;
+            }
+            activeCursors = cursors.length;
+        }
+        executor.execute(new AbstractRunnable() {
+            @Override
+            protected void doRun() throws Exception {
+                task.setCancelListener(PagePipeline.this::cancel);
+                for (final Cursor cursor : cursors) {
+                    cursor.paginator.start(cursor);
+                }
+            }
+
+            @Override
+            public void onFailure(final Exception e) {
+                PagePipeline.this.onFailure(null, e);
+            }
+        });
+    }
+
+    private void cancel() {
+        synchronized (this) {
+            if (failure == null) {
+                failure = new TaskCancelledException("cancelled: " + task.getReasonCancelled());
+            }
+        }
+        executor.execute(drainTask);
+    }
+
+    private void onPage(final Cursor cursor, final SearchResponse response) {
+        synchronized (this) {
+            cursor.fetching = false;
+            if (done) {
+                return;
+            }
+            final boolean last = cursor.paginator.isLastPage(response);
+            cursor.pages.add(new Page(response.getHits(), last));
+            if (!ordered) {
+                arrivals.add(cursor);
+            }
+            cursor.lastResponse = response;
+            if (last) {
+                cursor.exhausted = true;
+            }
+        }
+        fetchNext(cursor);
+        executor.execute(drainTask);
+    }
+
+    private void onFailure(final Cursor cursor, final Exception e) {
+        synchronized (this) {
+            if (cursor != null) {
+                cursor.fetching = false;
+            }
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        executor.execute(drainTask);
+    }
+
+    private void fetchNext(final Cursor cursor) {
+        final SearchResponse response;
+        synchronized (this) {
+            if (done || failure != null || cursor.fetching || cursor.exhausted) {
+                return;
+            }
+            // spilled pages do not hold back a slice waiting for its turn
+            final int pending = cursor.pages.size() + (canSpill(cursor) ? 0 : cursor.spilledPages)
+                    + (writingCursor == cursor ? 1 : 0);
+            if (pending > prefetch) {
+                return;
+            }
+            cursor.fetching = true;
+            response = cursor.lastResponse;
+        }
+        try {
+            cursor.paginator.next(response, cursor);
+        } catch (final Exception e) {
+            // a search of a cancelled task is rejected before it starts
+            onFailure(cursor, e);
+        }
+    }
+
+    private Cursor nextCursor() {
+        if (!ordered) {
+            return arrivals.poll();
+        }
+        while (currentCursor < cursors.length) {
+            final Cursor cursor = cursors[currentCursor];
+            if (!cursor.pages.isEmpty() || cursor.spilledPages > 0) {
+                return cursor;
+            }
+            if (!cursor.exhausted) {
+                return null;
+            }
+            currentCursor++;
+        }
+        return null;
+    }
+
+    /**
+     * Check if the pages of a cursor are spilled instead of buffered, which
+     * is the case for a slice waiting for its turn in ordered mode.
+     */
+    private boolean canSpill(final Cursor cursor) {
+        return ordered && spill != null && cursor.slice > currentCursor;
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (true) {
+                Page page;
+                final Cursor cursor;
+                final Exception e;
+                synchronized (this) {
+                    if (done) {
+                        break;
+                    }
+                    e = failure;
+                    if (e != null) {
+                        done = true;
+                        cursor = null;
+                        page = null;
+                    } else {
+                        cursor = nextCursor();
+                        if (cursor == null) {
+                            break;
+                        }
+                        if (cursor.spilledPages > 0) {
+                            // spilled pages precede the buffered ones
+                            cursor.spilledPages--;
+                            page = null;
+                        } else {
+                            page = cursor.pages.poll();
+                        }
+                        writingCursor = cursor;
+                    }
+                }
+                if (e != null) {
+                    fail(e);
+                    break;
+                }
+                fetchNext(cursor);
+                try {
+                    if (page == null) {
+                        page = cursor.spilled.read();
+                    }
+                } catch (final IOException ex) {
+                    onFailure(null, ex);
+                    continue;
+                }
+                if (!writePage(cursor, page)) {
+                    break;
+                }
+                synchronized (this) {
+                    writingCursor = null;
+                }
+                fetchNext(cursor);
+            }
+            spillPages();
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    /**
+     * Move the pages beyond {@code prefetch} of the slices waiting for their
+     * turn to their spill files, and let them fetch further.
+     */
+    private void spillPages() {
+        if (!ordered || spill == null) {
+            return;
+        }
+        for (final Cursor cursor : cursors) {
+            boolean spilled = false;
+            while (true) {
+                final Page page;
+                synchronized (this) {
+                    if (done || failure != null || !canSpill(cursor) || cursor.pages.size() <= prefetch) {
+                        break;
+                    }
+                    page = cursor.pages.poll();
+                    cursor.spilledPages++;
+                }
+                try {
+                    if (cursor.spilled == null) {
+                        cursor.spilled = new PageSpill(spill.createFile("spill_", ".dat"));
+                    }
+                    cursor.spilled.write(page);
+                    spill.checkDiskSpace(cursor.spilled.file);
+                } catch (final Exception e) {
+                    synchronized (this) {
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                    executor.execute(drainTask);
+                    return;
+                }
+                spilled = true;
+            }
+            if (spilled) {
+                fetchNext(cursor);
+            }
+        }
+    }
+
+    private boolean writePage(final Cursor cursor, final Page page) {
+        final SearchHits hits = page.hits;
+        final int size = hits.getHits().length;
+        currentCount += size;
+        if (logger.isDebugEnabled()) {
+            logger.debug("slice: {}, totalHits: {}, hits: {}, current: {}",
+                    cursor.slice, hits.getTotalHits(), size, currentCount);
+        }
+        try {
+            if (maxRows >= 0 && currentCount > maxRows) {
+                throw new ElasticsearchStatusException("The number of rows exceeds max_rows " + maxRows,
+                        RestStatus.BAD_REQUEST);
+            }
+            writer.write(hits);
+            if (maxBytes >= 0 && writer.getBytesWritten() > maxBytes) {
+                throw new ElasticsearchException("Content size is too large " + writer.getBytesWritten());
+            }
+            if (spill != null) {
+                spill.checkDiskSpace(writer.outputFile);
+            }
+            task.onPage(hits, cursor.pageCount == 0);
+            cursor.pageCount++;
+            synchronized (this) {
+                if (page.last) {
+                    activeCursors--;
+                }
+                if (activeCursors > 0) {
+                    return true;
+                }
+                // end
+                done = true;
+            }
+            closePaginators();
+            writer.finish();
+        } catch (final Exception e) {
+            synchronized (this) {
+                done = true;
+            }
+            fail(e);
+            return false;
+        }
+        listener.onResponse(writer.getHeaderOffset());
+        return false;
+    }
+
+    private void closePaginators() {
+        for (final Cursor cursor : cursors) {
+            try {
+                cursor.paginator.close();
+            } catch (final Exception e) {
+                logger.warn("Failed to close a paginator.", e);
+            }
+            if (cursor.spilled != null) {
+                cursor.spilled.close();
+            }
+        }
+    }
+
+    private void fail(final Exception e) {
+        closePaginators();
+        try {
+            writer.close();
+        } catch (final Exception e1) {
+            // ignore
+        }
+        if (ExceptionsHelper.status(e) != RestStatus.INTERNAL_SERVER_ERROR) {
+            // keep the status of a limit, such as 400 for max_rows
+            listener.onFailure(e);
+        } else {
+            listener.onFailure(new ElasticsearchException("Failed to write data.", e));
+        }
+    }
+
+    private static class Page {
+        private final SearchHits hits;
+
+        private final boolean last;
+
+        private Page(final SearchHits hits, final boolean last) {
+            this.hits = hits;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Pages of a slice which are fetched ahead of their turn. Only the
+     * drain loop writes and reads them.
+     */
+    private static class PageSpill {
+        private final File file;
+
+        private StreamOutput out;
+
+        private StreamInput in;
+
+        private PageSpill(final File file) {
+            this.file = file;
+        }
+
+        private void write(final Page page) throws IOException {
+            if (out == null) {
+                out = new OutputStreamStreamOutput(new BufferedOutputStream(new FileOutputStream(file)));
+            }
+            out.writeBoolean(page.last);
+            page.hits.writeTo(out);
+            // visible to the reader
+            out.flush();
+        }
+
+        private Page read() throws IOException {
+            if (in == null) {
+                in = new InputStreamStreamInput(new BufferedInputStream(new FileInputStream(file)));
+            }
+            final boolean last = in.readBoolean();
+            return new Page(new SearchHits(in), last);
+        }
+
+        private void close() {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+                if (in != null) {
+                    in.close();
+                }
+            } catch (final IOException e) {
+                logger.warn("Failed to close " + file.getAbsolutePath(), e);
+            }
+            if (file.exists() && !file.delete()) {
+                logger.warn("Failed to delete: {}", file.getAbsolutePath());
+            }
+        }
+    }
+
+    private class Cursor implements ActionListener<SearchResponse> {
+        private final int slice;
+
+        private final Paginator paginator;
+
+        // buffered pages, after the spilled ones
+        private final Deque<Page> pages = new ArrayDeque<>();
+
+        private PageSpill spilled;
+
+        private int spilledPages = 0;
+
+        private SearchResponse lastResponse;
+
+        private int pageCount = 0;
+
+        private boolean fetching = false;
+
+        private boolean exhausted = false;
+
+        private Cursor(final int slice, final Paginator paginator) {
+            this.slice = slice;
+            this.paginator = paginator;
+        }
+
+        @Override
+        public void onResponse(final SearchResponse response) {
+            onPage(this, response);
+        }
+
+        @Override
+        public void onFailure(final Exception e) {
+            PagePipeline.this.onFailure(this, e);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package org.codelibs.elasticsearch.df.content;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream which deflates blocks of the input concurrently, like
+ * pigz. Blocks are written in order, so the output is one standard gzip
+ * member.
+ *
+ * Each block is deflated with the tail of the previous block as its
+ * dictionary and ended with a sync flush, which keeps the compression ratio
+ * close to a sequential stream.
+ *
+ * In BGZF mode, every block is a gzip member of its own with its size in
+ * the BC extra field, and an empty block marks the end. Blocks are then
+ * independent and can be located without decompressing the data before
+ * them.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    // max input of a BGZF block, so that a stored block fits in 64KB
+    private static final int BGZF_BLOCK_SIZE = 0xff00;
+
+    private static final int BGZF_MAX_BLOCK = 0x10000;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private static final byte[] BGZF_EOF = { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 0x42, 0x43,
+            2, 0, 0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final OutputStream out;
+
+    private final Executor executor;
+
+    private final int maxPending;
+
+    private final boolean bgzf;
+
+    private final int blockSize;
+
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private final CRC32 crc = new CRC32();
+
+    private byte[] buffer;
+
+    private int count = 0;
+
+    private byte[] previous;
+
+    private int previousCount = 0;
+
+    private long size = 0;
+
+    private boolean closed = false;
+
+    /**
+     * @param out the output
+     * @param executor runs the deflation of blocks
+     * @param threads blocks deflated concurrently
+     * @param bgzf true to write BGZF blocks
+     * @throws IOException
+     */
+    public ParallelGzipOutputStream(final OutputStream out, final Executor executor, final int threads,
+            final boolean bgzf) throws IOException {
+        this.out = out;
+        this.executor = executor;
+        // keep all threads busy while the oldest block is written
+        this.maxPending = Math.max(1, threads) * 2;
+        this.bgzf = bgzf;
+        this.blockSize = bgzf ? BGZF_BLOCK_SIZE : DEFAULT_BLOCK_SIZE;
+        this.buffer = new byte[blockSize];
+        if (!bgzf) {
+            out.write(GZIP_HEADER);
+        }
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        ensureOpen();
+        if (count == blockSize) {
+            submit(false);
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (count == blockSize) {
+                submit(false);
+            }
+            final int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Write blocks which are already deflated. A partial block is kept,
+     * since cutting it would lower the compression ratio.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            out.write(get(pending.poll()));
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!bgzf || count > 0) {
+                submit(true);
+            }
+            while (!pending.isEmpty()) {
+                out.write(get(pending.poll()));
+            }
+            if (bgzf) {
+                out.write(BGZF_EOF);
+            } else {
+                writeInt(out, (int) crc.getValue());
+                writeInt(out, (int) size);
+            }
+            out.flush();
+        } finally {
+            for (final Future<byte[]> future : pending) {
+                future.cancel(false);
+            }
+            out.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void submit(final boolean last) throws IOException {
+        final byte[] block = buffer;
+        final int length = count;
+        final FutureTask<byte[]> task;
+        if (bgzf) {
+            task = new FutureTask<>(() -> deflateBgzfBlock(block, length));
+        } else {
+            crc.update(block, 0, length);
+            size += length;
+            final byte[] dictionary = previous;
+            final int dictionaryLength = previousCount;
+            task = new FutureTask<>(() -> deflateBlock(block, length, dictionary, dictionaryLength, last));
+        }
+        while (pending.size() >= maxPending) {
+            out.write(get(pending.poll()));
+        }
+        pending.add(task);
+        executor.execute(task);
+        previous = block;
+        previousCount = length;
+        if (!last) {
+            buffer = new byte[blockSize];
+            count = 0;
+        }
+    }
+
+    private static byte[] deflateBlock(final byte[] block, final int length, final byte[] dictionary,
+            final int dictionaryLength, final boolean last) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null) {
+                final int n = Math.min(DICTIONARY_SIZE, dictionaryLength);
+                deflater.setDictionary(dictionary, dictionaryLength - n, n);
+            }
+            deflater.setInput(block, 0, length);
+            if (last) {
+                deflater.finish();
+            }
+            byte[] buf = new byte[length + length / 8 + 64];
+            int n = 0;
+            while (true) {
+                if (n == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                if (last) {
+                    n += deflater.deflate(buf, n, buf.length - n);
+                    if (deflater.finished()) {
+                        break;
+                    }
+                } else {
+                    final int len = buf.length - n;
+                    final int written = deflater.deflate(buf, n, len, Deflater.SYNC_FLUSH);
+                    n += written;
+                    // a full output buffer means more data may be pending
+                    if (written < len) {
+                        break;
+                    }
+                }
+            }
+            return Arrays.copyOf(buf, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] deflateBgzfBlock(final byte[] block, final int length) {
+        byte[] data = deflate(block, length, Deflater.DEFAULT_COMPRESSION);
+        if (data.length + 26 > BGZF_MAX_BLOCK) {
+            // incompressible input
+            data = deflate(block, length, Deflater.NO_COMPRESSION);
+        }
+        final CRC32 blockCrc = new CRC32();
+        blockCrc.update(block, 0, length);
+        final int blockLength = data.length + 26;
+        final byte[] result = new byte[blockLength];
+        final byte[] header = { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 0x42, 0x43, 2, 0,
+                (byte) (blockLength - 1), (byte) ((blockLength - 1) >> 8) };
+        System.arraycopy(header, 0, result, 0, header.length);
+        System.arraycopy(data, 0, result, header.length, data.length);
+        putInt(result, blockLength - 8, (int) blockCrc.getValue());
+        putInt(result, blockLength - 4, length);
+        return result;
+    }
+
+    private static byte[] deflate(final byte[] block, final int length, final int level) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(block, 0, length);
+            deflater.finish();
+            byte[] buf = new byte[length + length / 8 + 64];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                n += deflater.deflate(buf, n, buf.length - n);
+            }
+            return Arrays.copyOf(buf, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] get(final Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing.");
+        } catch (final ExecutionException e) {
+            throw new IOException("Failed to compress a block.", e.getCause());
+        }
+    }
+
+    private static void putInt(final byte[] b, final int off, final int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >> 8);
+        b[off + 2] = (byte) (value >> 16);
+        b[off + 3] = (byte) (value >> 24);
+    }
+
+    private static void writeInt(final OutputStream out, final int value) throws IOException {
+        final byte[] b = new byte[4];
+        putInt(b, 0, value);
+        out.write(b);
+    }
+}
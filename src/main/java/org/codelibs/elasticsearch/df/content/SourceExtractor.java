@@ -0,0 +1,141 @@
+package org.codelibs.elasticsearch.df.content;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+import org.elasticsearch.common.xcontent.XContentType;
+
+/**
+ * Reads the values of fixed columns from the source with a streaming
+ * parser. Column names are flattened paths such as {@code a.b.c}, and the
+ * values are the same as in the flattened source map: scalars, lists or
+ * null. Subtrees which lead to no column are skipped without building any
+ * object. An object at a column is null, as in the flattened map, unless
+ * objects are kept for formats which store them in one column.
+ */
+public class SourceExtractor {
+
+    private final Node root = new Node();
+
+    private final int columns;
+
+    private final boolean keepObjects;
+
+    public SourceExtractor(final Collection<String> columns) {
+        this(columns, false);
+    }
+
+    /**
+     * @param columns
+     * @param keepObjects true to read an object at a column as a map
+     */
+    public SourceExtractor(final Collection<String> columns, final boolean keepObjects) {
+        this.keepObjects = keepObjects;
+        int index = 0;
+        for (final String column : columns) {
+            Node node = root;
+            for (final String name : column.split("\\.", -1)) {
+                node = node.children.computeIfAbsent(name, k -> new Node());
+            }
+            node.column = index++;
+        }
+        this.columns = index;
+    }
+
+    /**
+     * Fill a row with the column values of a source.
+     *
+     * @param source
+     * @param row values in column order, reused between calls
+     * @throws IOException
+     */
+    public void extract(final BytesReference source, final Object[] row) throws IOException {
+        Arrays.fill(row, 0, columns, null);
+        if (source == null || source.length() == 0) {
+            return;
+        }
+        try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, source, sourceType(source))) {
+            if (parser.nextToken() == Token.START_OBJECT) {
+                readObject(parser, root, row);
+            }
+        }
+    }
+
+    /**
+     * Get the content type of a source from its first bytes. A source is
+     * stored as it was indexed, which is JSON unless a client sent SMILE,
+     * CBOR or YAML.
+     *
+     * @param source not empty
+     * @return the content type
+     */
+    public static XContentType sourceType(final BytesReference source) {
+        final int first = source.get(0) & 0xff;
+        if (first == ':' && source.length() > 2 && source.get(1) == ')' && source.get(2) == '\n') {
+            return XContentType.SMILE;
+        } else if (first == 0xbf || (first & 0xe0) == 0xa0) {
+            // an indefinite or definite length map
+            return XContentType.CBOR;
+        } else if (first == '-' && source.length() > 2 && source.get(1) == '-' && source.get(2) == '-') {
+            return XContentType.YAML;
+        }
+        return XContentType.JSON;
+    }
+
+    private void readObject(final XContentParser parser, final Node parent, final Object[] row) throws IOException {
+        Token token;
+        while ((token = parser.nextToken()) == Token.FIELD_NAME) {
+            final Node node = parent.find(parser.currentName());
+            token = parser.nextToken();
+            if (node == null) {
+                parser.skipChildren();
+            } else if (token == Token.START_OBJECT
+                    && !(keepObjects && node.column >= 0 && node.children.isEmpty())) {
+                // an object is flattened into its fields
+                readObject(parser, node, row);
+            } else if (token == Token.START_OBJECT) {
+                // a nested object in one column
+                row[node.column] = parser.map();
+            } else if (node.column < 0) {
+                parser.skipChildren();
+            } else if (token == Token.START_ARRAY) {
+                row[node.column] = parser.list();
+            } else if (token == Token.VALUE_NULL) {
+                row[node.column] = null;
+            } else {
+                row[node.column] = parser.objectText();
+            }
+        }
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+
+        private int column = -1;
+
+        private Node find(final String name) {
+            if (name.indexOf('.') < 0) {
+                return children.get(name);
+            }
+            // a dotted key in the source
+            Node node = this;
+            for (final String part : name.split("\\.", -1)) {
+                node = node.children.get(part);
+                if (node == null) {
+                    return null;
+                }
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package org.codelibs.elasticsearch.df.content.arrow;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.codelibs.elasticsearch.df.content.ColumnValues;
+import org.codelibs.elasticsearch.df.util.ByteArrayBuilder;
+
+/**
+ * Nullable vector of one field in the current record batch.
+ *
+ * @see ColumnValues
+ */
+abstract class ArrowColumn {
+
+    static final int TYPE_INT = 2;
+
+    static final int TYPE_FLOATING_POINT = 3;
+
+    static final int TYPE_UTF8 = 5;
+
+    static final int TYPE_BOOL = 6;
+
+    private static final int PRECISION_SINGLE = 1;
+
+    private static final int PRECISION_DOUBLE = 2;
+
+    final String name;
+
+    final int type;
+
+    private final ByteArrayBuilder validity = new ByteArrayBuilder();
+
+    private int rows = 0;
+
+    private int nullCount = 0;
+
+    // rows with several values in a typed column, written as null
+    private long multiValuedRows = 0;
+
+    ArrowColumn(final String name, final int type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    /**
+     * Create a column for a field type of the mapping.
+     *
+     * @param name
+     * @param fieldType
+     * @return the column
+     */
+    static ArrowColumn create(final String name, final String fieldType) {
+        if (fieldType == null) {
+            return new Utf8Column(name);
+        }
+        switch (fieldType) {
+        case "long":
+            return new IntColumn(name, 64);
+        case "integer":
+            return new IntColumn(name, 32);
+        case "short":
+            return new IntColumn(name, 16);
+        case "byte":
+            return new IntColumn(name, 8);
+        case "double":
+        case "scaled_float":
+            return new FloatingPointColumn(name, PRECISION_DOUBLE);
+        case "float":
+        case "half_float":
+            return new FloatingPointColumn(name, PRECISION_SINGLE);
+        case "boolean":
+            return new BoolColumn(name);
+        default:
+            return new Utf8Column(name);
+        }
+    }
+
+    void add(Object value) {
+        if (type != TYPE_UTF8 && ColumnValues.isMultiple(value)) {
+            // no list vectors: one document must not abort the export
+            multiValuedRows++;
+            value = null;
+        } else {
+            value = ColumnValues.single(name, value, type == TYPE_UTF8);
+        }
+        if ((rows & 7) == 0) {
+            validity.write(0);
+        }
+        if (value != null && addValue(value)) {
+            validity.bytes()[rows >> 3] |= 1 << (rows & 7);
+        } else {
+            addNull();
+            nullCount++;
+        }
+        rows++;
+    }
+
+    /**
+     * @param value
+     * @return false if the value is malformed
+     */
+    protected abstract boolean addValue(Object value);
+
+    /**
+     * Add an empty slot for a null value.
+     */
+    protected abstract void addNull();
+
+    int getRows() {
+        return rows;
+    }
+
+    int getNullCount() {
+        return nullCount;
+    }
+
+    long getMultiValuedRows() {
+        return multiValuedRows;
+    }
+
+    /**
+     * @return the Type table of the field
+     */
+    abstract FlatTable typeTable();
+
+    /**
+     * Write the buffers of the vector, starting with the validity bitmap
+     * which is empty without nulls.
+     *
+     * @param body
+     */
+    void writeBuffers(final RecordBatchBody body) {
+        body.addBuffer(validity, nullCount == 0 ? 0 : validity.size());
+        writeValueBuffers(body);
+    }
+
+    protected abstract void writeValueBuffers(RecordBatchBody body);
+
+    void reset() {
+        validity.reset();
+        rows = 0;
+        nullCount = 0;
+    }
+
+    static class IntColumn extends ArrowColumn {
+        private final ByteArrayBuilder values = new ByteArrayBuilder();
+
+        private final int bitWidth;
+
+        IntColumn(final String name, final int bitWidth) {
+            super(name, TYPE_INT);
+            this.bitWidth = bitWidth;
+        }
+
+        @Override
+        protected boolean addValue(final Object value) {
+            final long v;
+            try {
+                v = ColumnValues.toLong(value);
+            } catch (final NumberFormatException e) {
+                return false;
+            }
+            if (bitWidth < 64 && v != v << 64 - bitWidth >> 64 - bitWidth) {
+                return false;
+            }
+            for (int b = 0; b < bitWidth; b += 8) {
+                values.write((int) (v >>> b));
+            }
+            return true;
+        }
+
+        @Override
+        protected void addNull() {
+            for (int b = 0; b < bitWidth; b += 8) {
+                values.write(0);
+            }
+        }
+
+        @Override
+        FlatTable typeTable() {
+            return new FlatTable().addInt(0, bitWidth).addBool(1, true);
+        }
+
+        @Override
+        protected void writeValueBuffers(final RecordBatchBody body) {
+            body.addBuffer(values, values.size());
+        }
+
+        @Override
+        void reset() {
+            super.reset();
+            values.reset();
+        }
+    }
+
+    static class FloatingPointColumn extends ArrowColumn {
+        private final ByteArrayBuilder values = new ByteArrayBuilder();
+
+        private final int precision;
+
+        FloatingPointColumn(final String name, final int precision) {
+            super(name, TYPE_FLOATING_POINT);
+            this.precision = precision;
+        }
+
+        @Override
+        protected boolean addValue(final Object value) {
+            final double v;
+            try {
+                v = ColumnValues.toDouble(value);
+            } catch (final NumberFormatException e) {
+                return false;
+            }
+            if (precision == PRECISION_DOUBLE) {
+                values.writeLongLE(Double.doubleToRawLongBits(v));
+            } else {
+                values.writeIntLE(Float.floatToRawIntBits((float) v));
+            }
+            return true;
+        }
+
+        @Override
+        protected void addNull() {
+            if (precision == PRECISION_DOUBLE) {
+                values.writeLongLE(0);
+            } else {
+                values.writeIntLE(0);
+            }
+        }
+
+        @Override
+        FlatTable typeTable() {
+            return new FlatTable().addShort(0, precision);
+        }
+
+        @Override
+        protected void writeValueBuffers(final RecordBatchBody body) {
+            body.addBuffer(values, values.size());
+        }
+
+        @Override
+        void reset() {
+            super.reset();
+            values.reset();
+        }
+    }
+
+    static class BoolColumn extends ArrowColumn {
+        // bitmap of the values
+        private final ByteArrayBuilder values = new ByteArrayBuilder();
+
+        BoolColumn(final String name) {
+            super(name, TYPE_BOOL);
+        }
+
+        @Override
+        protected boolean addValue(final Object value) {
+            final Boolean b = ColumnValues.toBoolean(value);
+            if (b == null) {
+                return false;
+            }
+            final int row = getRows();
+            if ((row & 7) == 0) {
+                values.write(0);
+            }
+            if (b) {
+                values.bytes()[row >> 3] |= 1 << (row & 7);
+            }
+            return true;
+        }
+
+        @Override
+        protected void addNull() {
+            if ((getRows() & 7) == 0) {
+                values.write(0);
+            }
+        }
+
+        @Override
+        FlatTable typeTable() {
+            return new FlatTable();
+        }
+
+        @Override
+        protected void writeValueBuffers(final RecordBatchBody body) {
+            body.addBuffer(values, values.size());
+        }
+
+        @Override
+        void reset() {
+            super.reset();
+            values.reset();
+        }
+    }
+
+    /**
+     * UTF-8 strings with 32-bit offsets. Objects and arrays are written as
+     * JSON.
+     */
+    static class Utf8Column extends ArrowColumn {
+        private final ByteArrayBuilder offsets = new ByteArrayBuilder();
+
+        private final ByteArrayBuilder data = new ByteArrayBuilder(1024);
+
+        Utf8Column(final String name) {
+            super(name, TYPE_UTF8);
+            offsets.writeIntLE(0);
+        }
+
+        @Override
+        protected boolean addValue(final Object value) {
+            final String text;
+            try {
+                text = ColumnValues.toText(value);
+            } catch (final IOException e) {
+                return false;
+            }
+            data.write(text.getBytes(StandardCharsets.UTF_8));
+            offsets.writeIntLE(data.size());
+            return true;
+        }
+
+        @Override
+        protected void addNull() {
+            offsets.writeIntLE(data.size());
+        }
+
+        @Override
+        FlatTable typeTable() {
+            return new FlatTable();
+        }
+
+        @Override
+        protected void writeValueBuffers(final RecordBatchBody body) {
+            body.addBuffer(offsets, offsets.size());
+            body.addBuffer(data, data.size());
+        }
+
+        @Override
+        void reset() {
+            super.reset();
+            offsets.reset();
+            data.reset();
+            offsets.writeIntLE(0);
+        }
+    }
+
+    /**
+     * Body of a record batch with the locations of its buffers.
+     */
+    static class RecordBatchBody {
+        final ByteArrayBuilder bytes = new ByteArrayBuilder(64 * 1024);
+
+        private long[] buffers = new long[16];
+
+        private int count = 0;
+
+        void addBuffer(final ByteArrayBuilder buffer, final int length) {
+            if (count + 2 > buffers.length) {
+                buffers = Arrays.copyOf(buffers, buffers.length * 2);
+            }
+            buffers[count++] = bytes.size();
+            buffers[count++] = length;
+            bytes.write(buffer.bytes(), 0, length);
+            // buffers are aligned to 8 bytes
+            while ((bytes.size() & 7) != 0) {
+                bytes.write(0);
+            }
+        }
+
+        /**
+         * @return the offsets and lengths of the buffers
+         */
+        long[] getBuffers() {
+            return Arrays.copyOf(buffers, count);
+        }
+
+        void reset() {
+            bytes.reset();
+            count = 0;
+        }
+    }
+}
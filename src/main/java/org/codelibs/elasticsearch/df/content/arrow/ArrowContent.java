@@ -0,0 +1,234 @@
+package org.codelibs.elasticsearch.df.content.arrow;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.df.content.ContentType;
+import org.codelibs.elasticsearch.df.content.ContentWriter;
+import org.codelibs.elasticsearch.df.content.DataContent;
+import org.codelibs.elasticsearch.df.content.SourceExtractor;
+import org.codelibs.elasticsearch.df.util.ByteArrayBuilder;
+import org.codelibs.elasticsearch.df.util.StringUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+
+/**
+ * Apache Arrow IPC streaming output. The schema comes from the mappings,
+ * and each page of hits is one record batch.
+ */
+public class ArrowContent extends DataContent {
+    private static final Logger logger = LogManager.getLogger(ArrowContent.class);
+
+    private static final int CONTINUATION = 0xffffffff;
+
+    private static final int METADATA_V5 = 4;
+
+    private static final int HEADER_SCHEMA = 1;
+
+    private static final int HEADER_RECORD_BATCH = 3;
+
+    private final String[] fields;
+
+    private Map<String, String> columnTypes;
+
+    public ArrowContent(final Client client, final RestRequest request, final ContentType contentType) {
+        super(client, request, contentType);
+
+        String fields_name = "fields_name";
+        if (request.hasParam("fl")) {
+            fields_name = "fl";
+        }
+        final String[] names = request.paramAsStringArray(fields_name, StringUtils.EMPTY_STRINGS);
+        for (int i = 0; i < names.length; i++) {
+            names[i] = names[i].trim();
+        }
+        fields = names.length == 0 ? null : names;
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("fields: {}", fields == null ? null : String.join(",", fields));
+        }
+    }
+
+    @Override
+    protected void prepare(final ActionListener<Void> listener) {
+        // the schema is the first message of the stream
+        resolveMapping(ActionListener.map(listener, mapping -> {
+            if (fields == null) {
+                columnTypes = mapping;
+            } else {
+                columnTypes = new LinkedHashMap<>();
+                for (final String field : fields) {
+                    columnTypes.put(field, mapping.get(field));
+                }
+            }
+            return null;
+        }));
+    }
+
+    @Override
+    public String[] getSourceIncludes() {
+        return fields;
+    }
+
+    @Override
+    public String[] getDocValueFields() {
+        return fields;
+    }
+
+    @Override
+    protected ContentWriter createWriter(final File outputFile) {
+        return new ArrowContentWriter(outputFile);
+    }
+
+    protected class ArrowContentWriter extends ContentWriter {
+        protected OutputStream out;
+
+        private List<ArrowColumn> columns;
+
+        // fixed columns: values are read from the source bytes
+        private SourceExtractor extractor;
+
+        private Object[] values;
+
+        private final ByteArrayBuilder metadata = new ByteArrayBuilder(1024);
+
+        private final ArrowColumn.RecordBatchBody body = new ArrowColumn.RecordBatchBody();
+
+        protected ArrowContentWriter(final File outputFile) {
+            super(outputFile, createCompressor());
+            try {
+                final Map<String, String> types = columnTypes == null ? Collections.emptyMap() : columnTypes;
+                columns = new ArrayList<>(types.size());
+                for (final Map.Entry<String, String> entry : types.entrySet()) {
+                    columns.add(ArrowColumn.create(entry.getKey(), entry.getValue()));
+                }
+                values = new Object[columns.size()];
+                if (!docValues) {
+                    extractor = new SourceExtractor(types.keySet(), true);
+                }
+                out = new BufferedOutputStream(openOutputStream(), 64 * 1024);
+                writeSchema();
+            } catch (final Exception e) {
+                close();
+                throw new ElasticsearchException("Could not open "
+                        + outputFile.getAbsolutePath(), e);
+            }
+        }
+
+        private void writeSchema() throws IOException {
+            final List<FlatTable> fieldTables = new ArrayList<>(columns.size());
+            for (final ArrowColumn column : columns) {
+                fieldTables.add(new FlatTable()
+                        .addString(0, column.name)
+                        .addBool(1, true)
+                        .addByte(2, column.type)
+                        .addTable(3, column.typeTable())
+                        .addTables(5, Collections.emptyList()));
+            }
+            writeMessage(HEADER_SCHEMA, new FlatTable().addShort(0, 0).addTables(1, fieldTables), 0);
+        }
+
+        /**
+         * Write an encapsulated message: the continuation marker, the
+         * metadata length and the metadata padded to 8 bytes.
+         */
+        private void writeMessage(final int headerType, final FlatTable header, final long bodyLength)
+                throws IOException {
+            metadata.reset();
+            metadata.writeIntLE(CONTINUATION);
+            metadata.writeIntLE(0);
+            new FlatTable()
+                    .addShort(0, METADATA_V5)
+                    .addByte(1, headerType)
+                    .addTable(2, header)
+                    .addLong(3, bodyLength)
+                    .finish(metadata);
+            while ((metadata.size() & 7) != 0) {
+                metadata.write(0);
+            }
+            metadata.setIntLE(4, metadata.size() - 8);
+            metadata.writeTo(out);
+        }
+
+        @Override
+        public void write(final SearchHits hits) throws IOException {
+            for (final SearchHit hit : hits) {
+                if (extractor != null) {
+                    extractor.extract(hit.getSourceRef(), values);
+                } else {
+                    final Map<String, Object> dataMap = getFlatMap(hit);
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = dataMap.get(columns.get(i).name);
+                    }
+                }
+                for (int i = 0; i < values.length; i++) {
+                    columns.get(i).add(values[i]);
+                }
+            }
+            writeRecordBatch();
+        }
+
+        private void writeRecordBatch() throws IOException {
+            final int rows = columns.isEmpty() ? 0 : columns.get(0).getRows();
+            if (rows == 0) {
+                return;
+            }
+            body.reset();
+            final long[] nodes = new long[columns.size() * 2];
+            for (int i = 0; i < columns.size(); i++) {
+                final ArrowColumn column = columns.get(i);
+                nodes[i * 2] = column.getRows();
+                nodes[i * 2 + 1] = column.getNullCount();
+                column.writeBuffers(body);
+                column.reset();
+            }
+            writeMessage(HEADER_RECORD_BATCH, new FlatTable()
+                    .addLong(0, rows)
+                    .addStructs(1, nodes)
+                    .addStructs(2, body.getBuffers()), body.bytes.size());
+            body.bytes.writeTo(out);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            // end of stream
+            metadata.reset();
+            metadata.writeIntLE(CONTINUATION);
+            metadata.writeIntLE(0);
+            metadata.writeTo(out);
+            out.flush();
+            close();
+            for (final ArrowColumn column : columns) {
+                if (column.getMultiValuedRows() > 0) {
+                    logger.warn("{} rows of {} have multiple values, which are written as null.",
+                            column.getMultiValuedRows(), column.name);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (final IOException e) {
+                    throw new ElasticsearchException("Could not close "
+                            + outputFile.getAbsolutePath(), e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.codelibs.elasticsearch.df.content.arrow;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codelibs.elasticsearch.df.util.ByteArrayBuilder;
+
+/**
+ * Table of a FlatBuffers buffer, for the metadata of Arrow IPC messages.
+ * Tables are serialized front to back: a table is written before the
+ * strings, vectors and tables it refers to, so that all offsets are
+ * positive, and its vtable is written just before it.
+ */
+class FlatTable {
+
+    private static final int SCALAR = 0;
+
+    private static final int TABLE = 1;
+
+    private static final int STRING = 2;
+
+    private static final int TABLES = 3;
+
+    private static final int STRUCTS = 4;
+
+    private final List<Field> fields = new ArrayList<>();
+
+    private static class Field {
+        private final int id;
+
+        private final int kind;
+
+        // inline size in the table
+        private final int size;
+
+        private final long value;
+
+        private final Object reference;
+
+        private int offset;
+
+        private Field(final int id, final int kind, final int size, final long value, final Object reference) {
+            this.id = id;
+            this.kind = kind;
+            this.size = size;
+            this.value = value;
+            this.reference = reference;
+        }
+    }
+
+    private FlatTable add(final int id, final int kind, final int size, final long value, final Object reference) {
+        fields.add(new Field(id, kind, size, value, reference));
+        return this;
+    }
+
+    FlatTable addByte(final int id, final int value) {
+        return add(id, SCALAR, 1, value, null);
+    }
+
+    FlatTable addBool(final int id, final boolean value) {
+        return add(id, SCALAR, 1, value ? 1 : 0, null);
+    }
+
+    FlatTable addShort(final int id, final int value) {
+        return add(id, SCALAR, 2, value, null);
+    }
+
+    FlatTable addInt(final int id, final int value) {
+        return add(id, SCALAR, 4, value, null);
+    }
+
+    FlatTable addLong(final int id, final long value) {
+        return add(id, SCALAR, 8, value, null);
+    }
+
+    FlatTable addTable(final int id, final FlatTable table) {
+        return add(id, TABLE, 4, 0, table);
+    }
+
+    FlatTable addString(final int id, final String value) {
+        return add(id, STRING, 4, 0, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    FlatTable addTables(final int id, final List<FlatTable> tables) {
+        return add(id, TABLES, 4, 0, tables);
+    }
+
+    /**
+     * Add a vector of structs made of two longs.
+     *
+     * @param id
+     * @param values the longs of all structs
+     * @return this table
+     */
+    FlatTable addStructs(final int id, final long[] values) {
+        return add(id, STRUCTS, 4, 0, values);
+    }
+
+    /**
+     * Write this table as the root of a buffer. Alignments are relative to
+     * the current size of the output.
+     *
+     * @param out
+     */
+    void finish(final ByteArrayBuilder out) {
+        final int base = out.size();
+        out.writeIntLE(0);
+        final int root = write(out, base);
+        out.setIntLE(base, root - base);
+    }
+
+    private static void align(final ByteArrayBuilder out, final int base, final int alignment) {
+        while ((out.size() - base) % alignment != 0) {
+            out.write(0);
+        }
+    }
+
+    private int write(final ByteArrayBuilder out, final int base) {
+        // inline fields by decreasing size, after the vtable offset
+        final List<Field> layout = new ArrayList<>(fields);
+        layout.sort((f1, f2) -> f2.size - f1.size);
+        int maxId = -1;
+        int tableSize = 4;
+        for (final Field field : layout) {
+            maxId = Math.max(maxId, field.id);
+            tableSize = (tableSize + field.size - 1) / field.size * field.size;
+            field.offset = tableSize;
+            tableSize += field.size;
+        }
+
+        align(out, base, 2);
+        final int vtable = out.size();
+        out.writeShortLE(4 + 2 * (maxId + 1));
+        out.writeShortLE(tableSize);
+        for (int id = 0; id <= maxId; id++) {
+            int offset = 0;
+            for (final Field field : fields) {
+                if (field.id == id) {
+                    offset = field.offset;
+                }
+            }
+            out.writeShortLE(offset);
+        }
+
+        align(out, base, 8);
+        final int table = out.size();
+        out.writeIntLE(table - vtable);
+        for (final Field field : layout) {
+            while (out.size() - table < field.offset) {
+                out.write(0);
+            }
+            switch (field.size) {
+            case 1:
+                out.write((int) field.value);
+                break;
+            case 2:
+                out.writeShortLE((int) field.value);
+                break;
+            case 4:
+                out.writeIntLE((int) field.value);
+                break;
+            default:
+                out.writeLongLE(field.value);
+                break;
+            }
+        }
+
+        for (final Field field : layout) {
+            if (field.kind != SCALAR) {
+                final int position = table + field.offset;
+                final int target = writeReference(out, base, field);
+                out.setIntLE(position, target - position);
+            }
+        }
+        return table;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int writeReference(final ByteArrayBuilder out, final int base, final Field field) {
+        switch (field.kind) {
+        case TABLE:
+            return ((FlatTable) field.reference).write(out, base);
+        case STRING: {
+            final byte[] bytes = (byte[]) field.reference;
+            align(out, base, 4);
+            final int position = out.size();
+            out.writeIntLE(bytes.length);
+            out.write(bytes);
+            out.write(0);
+            return position;
+        }
+        case TABLES: {
+            final List<FlatTable> tables = (List<FlatTable>) field.reference;
+            align(out, base, 4);
+            final int position = out.size();
+            out.writeIntLE(tables.size());
+            for (int i = 0; i < tables.size(); i++) {
+                out.writeIntLE(0);
+            }
+            for (int i = 0; i < tables.size(); i++) {
+                final int slot = position + 4 + 4 * i;
+                out.setIntLE(slot, tables.get(i).write(out, base) - slot);
+            }
+            return position;
+        }
+        default: {
+            final long[] values = (long[]) field.reference;
+            // the structs after the length are aligned to 8
+            align(out, base, 4);
+            if ((out.size() - base) % 8 == 0) {
+                out.writeIntLE(0);
+            }
+            final int position = out.size();
+            out.writeIntLE(values.length / 2);
+            for (final long value : values) {
+                out.writeLongLE(value);
+            }
+            return position;
+        }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package org.codelibs.elasticsearch.df.content.avro;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.df.content.ContentType;
+import org.codelibs.elasticsearch.df.content.ContentWriter;
+import org.codelibs.elasticsearch.df.content.DataContent;
+import org.codelibs.elasticsearch.df.content.SourceExtractor;
+import org.codelibs.elasticsearch.df.util.ByteArrayBuilder;
+import org.codelibs.elasticsearch.df.util.StringUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+
+import io.airlift.compress.snappy.SnappyCompressor;
+import io.airlift.compress.zstd.ZstdCompressor;
+
+/**
+ * Apache Avro object container file output. The schema comes from the
+ * mappings, and each page of hits is one data block.
+ */
+public class AvroContent extends DataContent {
+    private static final Logger logger = LogManager.getLogger(AvroContent.class);
+
+    private static final byte[] MAGIC = { 'O', 'b', 'j', 1 };
+
+    private final Codec codec;
+
+    private final String[] fields;
+
+    private Map<String, String> columnTypes;
+
+    public AvroContent(final Client client, final RestRequest request, final ContentType contentType) {
+        super(client, request, contentType);
+
+        codec = Codec.of(request.param("avro.codec", "deflate"));
+
+        String fields_name = "fields_name";
+        if (request.hasParam("fl")) {
+            fields_name = "fl";
+        }
+        final String[] names = request.paramAsStringArray(fields_name, StringUtils.EMPTY_STRINGS);
+        for (int i = 0; i < names.length; i++) {
+            names[i] = names[i].trim();
+        }
+        fields = names.length == 0 ? null : names;
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("codec: {}, fields: {}", codec, fields == null ? null : String.join(",", fields));
+        }
+    }
+
+    @Override
+    protected void prepare(final ActionListener<Void> listener) {
+        // the schema is in the file header
+        resolveMapping(ActionListener.map(listener, mapping -> {
+            if (fields == null) {
+                columnTypes = mapping;
+            } else {
+                columnTypes = new LinkedHashMap<>();
+                for (final String field : fields) {
+                    columnTypes.put(field, mapping.get(field));
+                }
+            }
+            return null;
+        }));
+    }
+
+    @Override
+    public String[] getSourceIncludes() {
+        return fields;
+    }
+
+    @Override
+    public String[] getDocValueFields() {
+        return fields;
+    }
+
+    @Override
+    protected ContentWriter createWriter(final File outputFile) {
+        return new AvroContentWriter(outputFile);
+    }
+
+    enum Codec {
+        NULL, DEFLATE, SNAPPY, ZSTANDARD;
+
+        static Codec of(final String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported avro.codec: " + name);
+            }
+        }
+
+        String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    protected class AvroContentWriter extends ContentWriter {
+        protected OutputStream out;
+
+        private AvroRecord record;
+
+        // fixed columns: values are read from the source bytes
+        private SourceExtractor extractor;
+
+        private String[] columns;
+
+        private Object[] values;
+
+        private final byte[] sync = new byte[16];
+
+        private final ByteArrayBuilder block = new ByteArrayBuilder(64 * 1024);
+
+        private final ByteArrayBuilder items = new ByteArrayBuilder();
+
+        private final ByteArrayBuilder compressed = new ByteArrayBuilder(64 * 1024);
+
+        private final ByteArrayBuilder header = new ByteArrayBuilder();
+
+        private io.airlift.compress.Compressor blockCompressor;
+
+        private byte[] compressBuffer = new byte[0];
+
+        protected AvroContentWriter(final File outputFile) {
+            super(outputFile, createCompressor());
+            try {
+                final Map<String, String> types = columnTypes == null ? Collections.emptyMap() : columnTypes;
+                record = AvroRecord.create(request.param("index", "_all"), types);
+                columns = types.keySet().toArray(new String[types.size()]);
+                values = new Object[columns.length];
+                if (!docValues) {
+                    extractor = new SourceExtractor(types.keySet(), true);
+                }
+                final UUID uuid = UUID.randomUUID();
+                for (int i = 0; i < 8; i++) {
+                    sync[i] = (byte) (uuid.getMostSignificantBits() >>> i * 8);
+                    sync[i + 8] = (byte) (uuid.getLeastSignificantBits() >>> i * 8);
+                }
+                out = new BufferedOutputStream(openOutputStream(), 64 * 1024);
+                writeHeader();
+            } catch (final Exception e) {
+                close();
+                throw new ElasticsearchException("Could not open "
+                        + outputFile.getAbsolutePath(), e);
+            }
+        }
+
+        private void writeHeader() throws IOException {
+            final XContentBuilder schema = JsonXContent.contentBuilder();
+            record.toSchema(schema);
+            header.reset();
+            header.write(MAGIC);
+            // file metadata as a map of bytes
+            header.writeZigZagLong(2);
+            writeBytes(header, "avro.schema".getBytes(StandardCharsets.UTF_8));
+            writeBytes(header, Strings.toString(schema).getBytes(StandardCharsets.UTF_8));
+            writeBytes(header, "avro.codec".getBytes(StandardCharsets.UTF_8));
+            writeBytes(header, codec.getName().getBytes(StandardCharsets.UTF_8));
+            header.writeZigZagLong(0);
+            header.write(sync);
+            header.writeTo(out);
+        }
+
+        private void writeBytes(final ByteArrayBuilder buf, final byte[] bytes) {
+            buf.writeZigZagLong(bytes.length);
+            buf.write(bytes);
+        }
+
+        @Override
+        public void write(final SearchHits hits) throws IOException {
+            block.reset();
+            int count = 0;
+            for (final SearchHit hit : hits) {
+                if (extractor != null) {
+                    extractor.extract(hit.getSourceRef(), values);
+                } else {
+                    final Map<String, Object> dataMap = getFlatMap(hit);
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = dataMap.get(columns[i]);
+                    }
+                }
+                record.write(block, values, items);
+                count++;
+            }
+            if (count > 0) {
+                writeBlock(count);
+            }
+        }
+
+        private void writeBlock(final int count) throws IOException {
+            final ByteArrayBuilder data;
+            if (codec == Codec.NULL) {
+                data = block;
+            } else {
+                compress();
+                data = compressed;
+            }
+            header.reset();
+            header.writeZigZagLong(count);
+            header.writeZigZagLong(data.size());
+            header.writeTo(out);
+            data.writeTo(out);
+            out.write(sync);
+        }
+
+        private void compress() throws IOException {
+            compressed.reset();
+            if (codec == Codec.DEFLATE) {
+                // raw deflate without the zlib header
+                final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                try (DeflaterOutputStream deflate = new DeflaterOutputStream(compressed, deflater)) {
+                    block.writeTo(deflate);
+                } finally {
+                    deflater.end();
+                }
+                return;
+            }
+            if (blockCompressor == null) {
+                blockCompressor = codec == Codec.SNAPPY ? new SnappyCompressor() : new ZstdCompressor();
+            }
+            final int maxLength = blockCompressor.maxCompressedLength(block.size());
+            if (compressBuffer.length < maxLength) {
+                compressBuffer = new byte[maxLength];
+            }
+            final int length = blockCompressor.compress(block.bytes(), 0, block.size(), compressBuffer, 0, maxLength);
+            compressed.write(compressBuffer, 0, length);
+            if (codec == Codec.SNAPPY) {
+                // big-endian CRC32 of the uncompressed data
+                final CRC32 crc = new CRC32();
+                crc.update(block.bytes(), 0, block.size());
+                final int value = (int) crc.getValue();
+                compressed.write(value >>> 24);
+                compressed.write(value >>> 16);
+                compressed.write(value >>> 8);
+                compressed.write(value);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.flush();
+            close();
+        }
+
+        @Override
+        public void close() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (final IOException e) {
+                    throw new ElasticsearchException("Could not close "
+                            + outputFile.getAbsolutePath(), e);
+                }
+            }
+        }
+    }
+}
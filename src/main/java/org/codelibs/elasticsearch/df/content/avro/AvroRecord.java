@@ -0,0 +1,298 @@
+package org.codelibs.elasticsearch.df.content.avro;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codelibs.elasticsearch.df.content.ColumnValues;
+import org.codelibs.elasticsearch.df.util.ByteArrayBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Record of an Avro schema built from the flattened columns of the
+ * mappings: an object field is a nested record, and a leaf field is a
+ * union of null, its type and an array of its type, since any field may
+ * have several values. Names are sanitized to Avro names.
+ *
+ * @see ColumnValues
+ */
+class AvroRecord {
+
+    private static final int NULL_BRANCH = 0;
+
+    private static final int VALUE_BRANCH = 1;
+
+    private static final int ARRAY_BRANCH = 2;
+
+    private final String typeName;
+
+    // Leaf or AvroRecord by field name, in column order
+    private final List<String> names = new ArrayList<>();
+
+    private final List<Object> children = new ArrayList<>();
+
+    private final Map<String, AvroRecord> records = new HashMap<>();
+
+    // columns of all leaves of this record and its nested records
+    private final List<Integer> columns = new ArrayList<>();
+
+    private AvroRecord(final String typeName) {
+        this.typeName = typeName;
+    }
+
+    /**
+     * Build the top-level record.
+     *
+     * @param name the record name
+     * @param columnTypes the field types by flattened field name
+     * @return the record
+     */
+    static AvroRecord create(final String name, final Map<String, String> columnTypes) {
+        // primitive type names cannot be defined
+        final Set<String> typeNames = new HashSet<>(
+                Arrays.asList("null", "boolean", "int", "long", "float", "double", "bytes", "string"));
+        final AvroRecord root = new AvroRecord(uniqueName(toName(name), typeNames));
+        int column = 0;
+        for (final Map.Entry<String, String> entry : columnTypes.entrySet()) {
+            root.insert(entry.getKey(), new Leaf(entry.getKey(), column++, entry.getValue()), typeNames);
+        }
+        root.sanitizeNames();
+        return root;
+    }
+
+    private void insert(final String path, final Leaf leaf, final Set<String> typeNames) {
+        columns.add(leaf.column);
+        final int dot = path.indexOf('.');
+        if (dot > 0 && dot < path.length() - 1) {
+            final String head = path.substring(0, dot);
+            AvroRecord record = records.get(head);
+            if (record == null && !names.contains(head)) {
+                record = new AvroRecord(uniqueName(toName(head), typeNames));
+                records.put(head, record);
+                names.add(head);
+                children.add(record);
+            }
+            if (record != null) {
+                record.insert(path.substring(dot + 1), leaf, typeNames);
+                return;
+            }
+        }
+        // a leaf, also for a dotted path under another leaf
+        names.add(path);
+        children.add(leaf);
+    }
+
+    private void sanitizeNames() {
+        final Set<String> used = new HashSet<>();
+        for (int i = 0; i < names.size(); i++) {
+            names.set(i, uniqueName(toName(names.get(i)), used));
+            if (children.get(i) instanceof AvroRecord) {
+                ((AvroRecord) children.get(i)).sanitizeNames();
+            }
+        }
+    }
+
+    private static String toName(final String value) {
+        final StringBuilder buf = new StringBuilder(value.length() + 1);
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c == '_' || c >= '0' && c <= '9' && i > 0) {
+                buf.append(c);
+            } else if (c >= '0' && c <= '9') {
+                buf.append('_').append(c);
+            } else {
+                buf.append('_');
+            }
+        }
+        return buf.length() == 0 ? "_" : buf.toString();
+    }
+
+    private static String uniqueName(final String name, final Set<String> used) {
+        String unique = name;
+        for (int i = 2; !used.add(unique); i++) {
+            unique = name + "_" + i;
+        }
+        return unique;
+    }
+
+    /**
+     * Write the record type as JSON.
+     *
+     * @param builder
+     * @throws IOException
+     */
+    void toSchema(final XContentBuilder builder) throws IOException {
+        builder.startObject().field("type", "record").field("name", typeName).startArray("fields");
+        for (int i = 0; i < names.size(); i++) {
+            builder.startObject().field("name", names.get(i)).startArray("type").value("null");
+            final Object child = children.get(i);
+            if (child instanceof AvroRecord) {
+                ((AvroRecord) child).toSchema(builder);
+            } else {
+                final String type = ((Leaf) child).type;
+                builder.value(type).startObject().field("type", "array").field("items", type).endObject();
+            }
+            builder.endArray().nullField("default").endObject();
+        }
+        builder.endArray().endObject();
+    }
+
+    /**
+     * Encode a row in the Avro binary encoding.
+     *
+     * @param out
+     * @param values the values by column
+     * @param items a buffer for the items of arrays
+     */
+    void write(final ByteArrayBuilder out, final Object[] values, final ByteArrayBuilder items) {
+        for (final Object child : children) {
+            if (child instanceof AvroRecord) {
+                final AvroRecord record = (AvroRecord) child;
+                if (record.isEmpty(values)) {
+                    out.writeZigZagLong(NULL_BRANCH);
+                } else {
+                    out.writeZigZagLong(VALUE_BRANCH);
+                    record.write(out, values, items);
+                }
+            } else {
+                ((Leaf) child).write(out, values[((Leaf) child).column], items);
+            }
+        }
+    }
+
+    private boolean isEmpty(final Object[] values) {
+        for (final Integer column : columns) {
+            if (values[column] != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Leaf {
+        private final String field;
+
+        private final int column;
+
+        private final String type;
+
+        private Leaf(final String field, final int column, final String fieldType) {
+            this.field = field;
+            this.column = column;
+            this.type = toType(fieldType);
+        }
+
+        private static String toType(final String fieldType) {
+            if (fieldType == null) {
+                return "string";
+            }
+            switch (fieldType) {
+            case "long":
+                return "long";
+            case "integer":
+            case "short":
+            case "byte":
+                return "int";
+            case "double":
+            case "scaled_float":
+                return "double";
+            case "float":
+            case "half_float":
+                return "float";
+            case "boolean":
+                return "boolean";
+            default:
+                return "string";
+            }
+        }
+
+        private void write(final ByteArrayBuilder out, Object value, final ByteArrayBuilder items) {
+            value = ColumnValues.single(field, value, true);
+            if (value instanceof List) {
+                items.reset();
+                int count = 0;
+                for (final Object item : (List<?>) value) {
+                    // nulls and malformed items are skipped
+                    if (item != null && writeValue(items, -1, item)) {
+                        count++;
+                    }
+                }
+                if (count == 0) {
+                    out.writeZigZagLong(NULL_BRANCH);
+                } else {
+                    out.writeZigZagLong(ARRAY_BRANCH);
+                    out.writeZigZagLong(count);
+                    out.write(items.bytes(), 0, items.size());
+                    out.writeZigZagLong(0);
+                }
+            } else if (value == null || !writeValue(out, VALUE_BRANCH, value)) {
+                out.writeZigZagLong(NULL_BRANCH);
+            }
+        }
+
+        /**
+         * @param out
+         * @param branch the union branch to write before the value, or -1
+         * @param value not null
+         * @return false if the value is malformed, and nothing is written
+         */
+        private boolean writeValue(final ByteArrayBuilder out, final int branch, final Object value) {
+            try {
+                switch (type) {
+                case "long":
+                case "int": {
+                    final long v = ColumnValues.toLong(value);
+                    if ("int".equals(type) && (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)) {
+                        return false;
+                    }
+                    writeBranch(out, branch);
+                    out.writeZigZagLong(v);
+                    return true;
+                }
+                case "double": {
+                    final double v = ColumnValues.toDouble(value);
+                    writeBranch(out, branch);
+                    out.writeLongLE(Double.doubleToRawLongBits(v));
+                    return true;
+                }
+                case "float": {
+                    final double v = ColumnValues.toDouble(value);
+                    writeBranch(out, branch);
+                    out.writeIntLE(Float.floatToRawIntBits((float) v));
+                    return true;
+                }
+                case "boolean": {
+                    final Boolean v = ColumnValues.toBoolean(value);
+                    if (v == null) {
+                        return false;
+                    }
+                    writeBranch(out, branch);
+                    out.write(v ? 1 : 0);
+                    return true;
+                }
+                default: {
+                    final byte[] bytes = ColumnValues.toText(value).getBytes(StandardCharsets.UTF_8);
+                    writeBranch(out, branch);
+                    out.writeZigZagLong(bytes.length);
+                    out.write(bytes);
+                    return true;
+                }
+                }
+            } catch (final NumberFormatException | IOException e) {
+                return false;
+            }
+        }
+
+        private static void writeBranch(final ByteArrayBuilder out, final int branch) {
+            if (branch >= 0) {
+                out.writeZigZagLong(branch);
+            }
+        }
+    }
+}
@@ -1,41 +1,39 @@
 package org.codelibs.elasticsearch.df.content.csv;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.codelibs.elasticsearch.df.content.ContentType;
+import org.codelibs.elasticsearch.df.content.ContentWriter;
 import org.codelibs.elasticsearch.df.content.DataContent;
-import org.codelibs.elasticsearch.df.util.MapUtils;
-import org.codelibs.elasticsearch.df.util.RequestUtil;
+import org.codelibs.elasticsearch.df.content.SourceExtractor;
+import org.codelibs.elasticsearch.df.util.FileUtils;
 import org.codelibs.elasticsearch.df.util.StringUtils;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 
 import com.orangesignal.csv.CsvConfig;
-import com.orangesignal.csv.CsvWriter;
 
 public class CsvContent extends DataContent {
     private static final Logger logger = LogManager.getLogger(CsvContent.class);
@@ -94,35 +92,56 @@ public class CsvContent extends DataContent {
     }
 
     @Override
-    public void write(final File outputFile, final SearchResponse response, final RestChannel channel,
-                      final ActionListener<Void> listener) {
-        try {
-            final OnLoadListener onLoadListener = new OnLoadListener(
-                    outputFile, listener);
-            onLoadListener.onResponse(response);
-        } catch (final Exception e) {
-            listener.onFailure(new ElasticsearchException("Failed to write data.",
-                    e));
+    protected void prepare(final ActionListener<Void> listener) {
+        if (!mappingSchema || !modifiableFieldSet) {
+            listener.onResponse(null);
+            return;
         }
+        resolveSchema(ActionListener.map(listener, fields -> {
+            headerSet = Collections.unmodifiableSet(fields);
+            modifiableFieldSet = false;
+            return null;
+        }));
     }
 
-    protected class OnLoadListener implements ActionListener<SearchResponse> {
-        protected ActionListener<Void> listener;
+    @Override
+    public String[] getSourceIncludes() {
+        // a flattened name such as a.b.c also matches the nested objects
+        return modifiableFieldSet ? null : headerSet.toArray(new String[headerSet.size()]);
+    }
+
+    @Override
+    public String[] getDocValueFields() {
+        return getSourceIncludes();
+    }
+
+    @Override
+    protected ContentWriter createWriter(final File outputFile) {
+        return new CsvContentWriter(outputFile);
+    }
 
-        protected CsvWriter csvWriter;
+    protected class CsvContentWriter extends ContentWriter {
+        protected CsvEncoder csvWriter;
 
-        protected File outputFile;
+        // fixed columns: values are read from the source bytes
+        private SourceExtractor extractor;
 
-        private long currentCount = 0;
+        // reused between rows
+        private Object[] values = new Object[0];
 
-        protected OnLoadListener(final File outputFile, final ActionListener<Void> listener) {
-            this.outputFile = outputFile;
-            this.listener = listener;
+        protected CsvContentWriter(final File outputFile) {
+            super(outputFile, createCompressor());
             try {
-                csvWriter = new CsvWriter(
-                        new BufferedWriter(new OutputStreamWriter(
-                                new FileOutputStream(outputFile), charsetName)),
+                csvWriter = new CsvEncoder(openOutputStream(), charsetName,
                         csvConfig);
+                if (appendHeader && !modifiableFieldSet) {
+                    // known fields: no need to wait for the last row
+                    csvWriter.writeRow(new ArrayList<>(headerSet));
+                }
+                if (!modifiableFieldSet && !docValues) {
+                    extractor = new SourceExtractor(headerSet);
+                    values = new Object[headerSet.size()];
+                }
             } catch (final Exception e) {
                 throw new ElasticsearchException("Could not open "
                         + outputFile.getAbsolutePath(), e);
@@ -130,84 +149,107 @@ public class CsvContent extends DataContent {
         }
 
         @Override
-        public void onResponse(final SearchResponse response) {
-            final String scrollId = response.getScrollId();
-            final SearchHits hits = response.getHits();
-            final int size = hits.getHits().length;
-            currentCount += size;
-            if (logger.isDebugEnabled()) {
-                logger.debug("scrollId: {}, totalHits: {}, hits: {}, current: {}",
-                        scrollId, hits.getTotalHits(), size, currentCount);
-            }
-            try {
+        public void write(final SearchHits hits) throws IOException {
+            if (extractor != null) {
                 for (final SearchHit hit : hits) {
-                    final Map<String, Object> sourceMap = hit.getSourceAsMap();
-                    final Map<String, Object> dataMap = new HashMap<>();
-                    MapUtils.convertToFlatMap("", sourceMap, dataMap);
-                    for (final String key : dataMap.keySet()) {
-                        if (modifiableFieldSet && !headerSet.contains(key)) {
-                            headerSet.add(key);
-                        }
-                    }
-                    final List<String> dataList = new ArrayList<>(
-                            dataMap.size());
-                    for (final String name : headerSet) {
-                        final Object value = dataMap.get(name);
-                        dataList.add(value != null ? value.toString() : null);
-                    }
-                    csvWriter.writeValues(dataList);
+                    extractor.extract(hit.getSourceRef(), values);
+                    csvWriter.writeRow(values, values.length);
+                }
+                return;
+            }
+            for (final SearchHit hit : hits) {
+                final Map<String, Object> dataMap = getFlatMap(hit);
+                if (modifiableFieldSet) {
+                    headerSet.addAll(dataMap.keySet());
+                }
+                if (values.length < headerSet.size()) {
+                    values = new Object[headerSet.size()];
+                }
+                int i = 0;
+                for (final String name : headerSet) {
+                    values[i++] = dataMap.get(name);
                 }
+                csvWriter.writeRow(values, i);
+            }
+        }
 
-                if (size == 0 || scrollId == null) {
-                    // end
-                    csvWriter.flush();
-                    close();
-                    if (appendHeader) {
-                        boolean finished = false;
-                        final Path tempFile = Files
-                                .createTempFile("dataformat_", ".csv");
-                        try (final OutputStream out = Files
-                                .newOutputStream(tempFile);
-                             final CsvWriter writer = new CsvWriter(
-                                     new OutputStreamWriter(out,
-                                             charsetName),
-                                     csvConfig)) {
-                            writer.writeValues(headerSet.stream()
-                                    .collect(Collectors.toList()));
-                            writer.flush();
-                            Files.copy(outputFile.toPath(), out);
-                            finished = true;
-                        } finally {
-                            if (finished) {
-                                Files.copy(tempFile, outputFile.toPath(),
-                                        StandardCopyOption.REPLACE_EXISTING);
-                            }
-                            Files.delete(tempFile);
-                        }
-                    }
-                    listener.onResponse(null);
+        @Override
+        public void finish() throws IOException {
+            csvWriter.flush();
+            close();
+            if (!appendHeader || !modifiableFieldSet) {
+                return;
+            }
+            if (isSpliceHeader()) {
+                // the body is not rewritten; readers start at the header
+                final long offset = outputFile.length();
+                try (final OutputStream out = new FileOutputStream(outputFile,
+                        true)) {
+                    writeHeader(out);
+                }
+                setHeaderOffset(offset);
+                return;
+            }
+            // a file given by the caller is a plain CSV file, so the body
+            // is copied once behind the header into a file next to it
+            boolean finished = false;
+            final Path tempFile = Files.createTempFile(
+                    outputFile.getAbsoluteFile().toPath().getParent(),
+                    "dataformat_", ".csv");
+            try (final FileChannel out = FileChannel.open(tempFile,
+                    StandardOpenOption.WRITE);
+                    final FileChannel in = FileChannel.open(
+                            outputFile.toPath(), StandardOpenOption.READ)) {
+                writeHeader(Channels.newOutputStream(out));
+                FileUtils.transfer(in, 0, in.size(), out);
+                finished = true;
+            } finally {
+                if (finished) {
+                    copyPermissions(outputFile.toPath(), tempFile);
+                    Files.move(tempFile, outputFile.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
                 } else {
-                    client.prepareSearchScroll(scrollId)
-                            .setScroll(RequestUtil.getScroll(request))
-                            .execute(this);
+                    Files.delete(tempFile);
                 }
-            } catch (final Exception e) {
-                onFailure(e);
             }
         }
 
-        @Override
-        public void onFailure(final Exception e) {
-            try {
-                close();
-            } catch (final Exception e1) {
-                // ignore
+        /**
+         * Keep the permissions of the output, since a temporary file is
+         * only readable by its owner.
+         */
+        private void copyPermissions(final Path source, final Path target)
+                throws IOException {
+            final PosixFileAttributeView view = Files.getFileAttributeView(
+                    source, PosixFileAttributeView.class);
+            if (view != null) {
+                Files.setPosixFilePermissions(target,
+                        view.readAttributes().permissions());
+            }
+        }
+
+        private void writeHeader(final OutputStream out) throws IOException {
+            // a compressed header is a stream of its own; gzip members and
+            // zstd frames can be concatenated
+            try (final CsvEncoder writer = new CsvEncoder(
+                    compressor.wrap(new FilterOutputStream(out) {
+                        @Override
+                        public void write(final byte[] b, final int off,
+                                final int len) throws IOException {
+                            out.write(b, off, len);
+                        }
+
+                        @Override
+                        public void close() throws IOException {
+                            flush();
+                        }
+                    }), charsetName, csvConfig)) {
+                writer.writeRow(new ArrayList<>(headerSet));
             }
-            listener.onFailure(new ElasticsearchException("Failed to write data.",
-                    e));
         }
 
-        private void close() {
+        @Override
+        public void close() {
             if (csvWriter != null) {
                 try {
                     csvWriter.close();
@@ -0,0 +1,354 @@
+package org.codelibs.elasticsearch.df.content.csv;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import com.orangesignal.csv.CsvConfig;
+import com.orangesignal.csv.QuotePolicy;
+
+/**
+ * CSV row encoder which writes the output of orangesignal's
+ * {@code CsvWriter} with the same {@link CsvConfig}, without building a
+ * String per row. Quotes and escapes are written inline into a reused
+ * buffer, integers are formatted without a String, and UTF-8, ISO-8859-1
+ * and US-ASCII are encoded directly. Other charsets go through a
+ * {@link Writer}.
+ */
+public class CsvEncoder implements Closeable, Flushable {
+
+    private static final int FLUSH_SIZE = 64 * 1024;
+
+    private static final int UTF_8 = 0;
+
+    private static final int LATIN_1 = 1;
+
+    private static final int ASCII = 2;
+
+    private static final int WRITER = 3;
+
+    private final OutputStream out;
+
+    private final Writer writer;
+
+    private final int mode;
+
+    private final char separator;
+
+    private final char quote;
+
+    private final char escape;
+
+    private final boolean quoteAll;
+
+    private final boolean quoteDisabled;
+
+    private final boolean escapeDisabled;
+
+    private final String nullString;
+
+    private final String lineSeparator;
+
+    // integers never need quoting or escaping
+    private final boolean plainIntegers;
+
+    private byte[] bytes;
+
+    private char[] chars;
+
+    private int pos = 0;
+
+    private boolean closed = false;
+
+    private final char[] digits = new char[20];
+
+    public CsvEncoder(final OutputStream out, final String charsetName, final CsvConfig config) {
+        config.validate();
+        final Charset charset = Charset.forName(charsetName);
+        this.out = out;
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            mode = UTF_8;
+        } else if (StandardCharsets.ISO_8859_1.equals(charset)) {
+            mode = LATIN_1;
+        } else if (StandardCharsets.US_ASCII.equals(charset)) {
+            mode = ASCII;
+        } else {
+            mode = WRITER;
+        }
+        if (mode == WRITER) {
+            writer = new OutputStreamWriter(out, charset);
+            chars = new char[FLUSH_SIZE];
+        } else {
+            writer = null;
+            bytes = new byte[FLUSH_SIZE];
+        }
+        separator = config.getSeparator();
+        quote = config.getQuote();
+        escape = config.getEscape();
+        quoteAll = config.getQuotePolicy() == QuotePolicy.ALL;
+        quoteDisabled = config.isQuoteDisabled();
+        escapeDisabled = config.isEscapeDisabled();
+        nullString = config.getNullString();
+        lineSeparator = config.getLineSeparator();
+        plainIntegers = !isIntegerChar(separator) && (quoteDisabled || !isIntegerChar(quote));
+    }
+
+    private static boolean isIntegerChar(final char c) {
+        return c == '-' || c >= '0' && c <= '9';
+    }
+
+    /**
+     * Write a row of values converted with {@link Object#toString()}.
+     *
+     * @param values
+     * @param length the number of columns
+     * @throws IOException if a value needs an escape and escapes are
+     *             disabled; nothing of the row is written then
+     */
+    public void writeRow(final Object[] values, final int length) throws IOException {
+        final int start = pos;
+        try {
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    put(separator);
+                }
+                writeValue(values[i]);
+            }
+        } catch (final IOException e) {
+            pos = start;
+            throw e;
+        }
+        endRow();
+    }
+
+    /**
+     * Write a row of values.
+     *
+     * @param values
+     * @throws IOException if a value needs an escape and escapes are
+     *             disabled; nothing of the row is written then
+     */
+    public void writeRow(final List<String> values) throws IOException {
+        final int start = pos;
+        try {
+            final int size = values.size();
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    put(separator);
+                }
+                writeValue(values.get(i));
+            }
+        } catch (final IOException e) {
+            pos = start;
+            throw e;
+        }
+        endRow();
+    }
+
+    private void endRow() throws IOException {
+        putString(lineSeparator);
+        if (pos >= FLUSH_SIZE) {
+            flushBuffer();
+        }
+    }
+
+    private void writeValue(final Object value) throws IOException {
+        if (value == null) {
+            if (nullString != null) {
+                putString(nullString);
+            }
+        } else if (plainIntegers && (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte)) {
+            final boolean quoted = !quoteDisabled && quoteAll;
+            if (quoted) {
+                put(quote);
+            }
+            putLong(((Number) value).longValue());
+            if (quoted) {
+                put(quote);
+            }
+        } else {
+            writeString(value.toString());
+        }
+    }
+
+    private void writeString(final String value) throws IOException {
+        final int length = value.length();
+        if (quoteDisabled) {
+            for (int i = 0; i < length;) {
+                if (value.charAt(i) == separator) {
+                    if (escapeDisabled) {
+                        throw new IOException("Escape disabled for a separator in " + value);
+                    }
+                    put(escape);
+                }
+                i = putChar(value, i);
+            }
+            return;
+        }
+        if (!quoteAll && !needsQuote(value)) {
+            putString(value);
+            return;
+        }
+        put(quote);
+        for (int i = 0; i < length;) {
+            if (value.charAt(i) == quote) {
+                if (escapeDisabled) {
+                    throw new IOException("Escape disabled for a quote in " + value);
+                }
+                put(escape);
+            }
+            i = putChar(value, i);
+        }
+        put(quote);
+    }
+
+    private boolean needsQuote(final String value) {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c == separator || c == quote || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void putString(final String value) {
+        final int length = value.length();
+        for (int i = 0; i < length;) {
+            i = putChar(value, i);
+        }
+    }
+
+    // returns the index of the next char
+    private int putChar(final String value, final int index) {
+        final char c = value.charAt(index);
+        if (mode != WRITER && Character.isHighSurrogate(c) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1))) {
+            if (mode != UTF_8) {
+                // one unmappable character
+                put('?');
+                return index + 2;
+            }
+            final int cp = Character.toCodePoint(c, value.charAt(index + 1));
+            ensure(4);
+            bytes[pos++] = (byte) (0xf0 | cp >> 18);
+            bytes[pos++] = (byte) (0x80 | cp >> 12 & 0x3f);
+            bytes[pos++] = (byte) (0x80 | cp >> 6 & 0x3f);
+            bytes[pos++] = (byte) (0x80 | cp & 0x3f);
+            return index + 2;
+        }
+        put(c);
+        return index + 1;
+    }
+
+    private void put(final char c) {
+        switch (mode) {
+        case UTF_8:
+            if (c < 0x80) {
+                ensure(1);
+                bytes[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                ensure(2);
+                bytes[pos++] = (byte) (0xc0 | c >> 6);
+                bytes[pos++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                // unpaired, replaced like the charset encoder does
+                ensure(1);
+                bytes[pos++] = '?';
+            } else {
+                ensure(3);
+                bytes[pos++] = (byte) (0xe0 | c >> 12);
+                bytes[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+                bytes[pos++] = (byte) (0x80 | c & 0x3f);
+            }
+            break;
+        case LATIN_1:
+            ensure(1);
+            bytes[pos++] = c <= 0xff ? (byte) c : (byte) '?';
+            break;
+        case ASCII:
+            ensure(1);
+            bytes[pos++] = c < 0x80 ? (byte) c : (byte) '?';
+            break;
+        default:
+            if (pos == chars.length) {
+                chars = Arrays.copyOf(chars, chars.length * 2);
+            }
+            chars[pos++] = c;
+            break;
+        }
+    }
+
+    private void putLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            putString(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        int n = digits.length;
+        do {
+            digits[--n] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (n < digits.length) {
+            put(digits[n++]);
+        }
+    }
+
+    private void ensure(final int n) {
+        if (pos + n > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, pos + n));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos == 0) {
+            return;
+        }
+        if (writer != null) {
+            writer.write(chars, 0, pos);
+        } else {
+            out.write(bytes, 0, pos);
+        }
+        pos = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        if (writer != null) {
+            writer.flush();
+        } else {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } finally {
+            if (writer != null) {
+                writer.close();
+            } else {
+                out.close();
+            }
+        }
+    }
+}
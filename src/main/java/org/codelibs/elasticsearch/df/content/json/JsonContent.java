@@ -1,24 +1,23 @@
 package org.codelibs.elasticsearch.df.content.json;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.codelibs.elasticsearch.df.content.ContentType;
+import org.codelibs.elasticsearch.df.content.ContentWriter;
 import org.codelibs.elasticsearch.df.content.DataContent;
-import org.codelibs.elasticsearch.df.util.RequestUtil;
+import org.codelibs.elasticsearch.df.content.SourceExtractor;
 import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentType;
-import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
@@ -35,33 +34,70 @@ public class JsonContent extends DataContent {
     }
 
     @Override
-    public void write(final File outputFile, final SearchResponse response, final RestChannel channel,
-            final ActionListener<Void> listener) {
-        try {
-            final OnLoadListener onLoadListener = new OnLoadListener(
-                    outputFile, listener);
-            onLoadListener.onResponse(response);
-        } catch (final Exception e) {
-            listener.onFailure(new ElasticsearchException("Failed to write data.",
-                    e));
-        }
+    protected ContentWriter createWriter(final File outputFile) {
+        return new JsonContentWriter(outputFile);
     }
 
-    protected class OnLoadListener implements ActionListener<SearchResponse> {
-        protected ActionListener<Void> listener;
+    /**
+     * Write a source as one line of JSON. A JSON source is copied as it is
+     * stored, and only other formats or multi-line sources are converted.
+     *
+     * @param out
+     * @param source
+     * @throws IOException
+     */
+    static void writeSource(final OutputStream out, final BytesReference source) throws IOException {
+        writeSource(out, source, null);
+    }
 
-        protected Writer writer;
+    /**
+     * Write a source as one line of JSON, with members inserted at the
+     * start of the object.
+     *
+     * @param out
+     * @param source
+     * @param members JSON members such as {@code "_id":"1"}, or null
+     * @throws IOException
+     */
+    static void writeSource(final OutputStream out, BytesReference source, final byte[] members) throws IOException {
+        final XContentType xContentType = SourceExtractor.sourceType(source);
+        if (xContentType != XContentType.JSON || source.indexOf((byte) '\n', 0) >= 0
+                || source.indexOf((byte) '\r', 0) >= 0) {
+            source = new BytesArray(XContentHelper.convertToJson(source, true, false, xContentType)
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        final int length = source.length();
+        int start = 0;
+        while (members != null && start < length && source.get(start) != '{') {
+            start++;
+        }
+        if (members == null || start == length) {
+            source.writeTo(out);
+            return;
+        }
+        int next = start + 1;
+        while (next < length && isWhitespace(source.get(next))) {
+            next++;
+        }
+        source.slice(0, start + 1).writeTo(out);
+        out.write(members);
+        if (next < length && source.get(next) != '}') {
+            out.write(',');
+        }
+        source.slice(start + 1, length - start - 1).writeTo(out);
+    }
 
-        protected File outputFile;
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
 
-        private long currentCount = 0;
+    protected class JsonContentWriter extends ContentWriter {
+        protected OutputStream writer;
 
-        protected OnLoadListener(final File outputFile, final ActionListener<Void> listener) {
-            this.outputFile = outputFile;
-            this.listener = listener;
+        protected JsonContentWriter(final File outputFile) {
+            super(outputFile, createCompressor());
             try {
-                writer = new BufferedWriter(new OutputStreamWriter(
-                        new FileOutputStream(outputFile), "UTF-8"));
+                writer = new BufferedOutputStream(openOutputStream(), 64 * 1024);
             } catch (final Exception e) {
                 throw new ElasticsearchException("Could not open "
                         + outputFile.getAbsolutePath(), e);
@@ -69,54 +105,26 @@ public class JsonContent extends DataContent {
         }
 
         @Override
-        public void onResponse(final SearchResponse response) {
-            final String scrollId = response.getScrollId();
-            final SearchHits hits = response.getHits();
-            final int size = hits.getHits().length;
-            currentCount += size;
-            if (logger.isDebugEnabled()) {
-                logger.debug("scrollId: {}, totalHits: {}, hits: {}, current: {}",
-                        scrollId, hits.getTotalHits(), size, currentCount);
-            }
-            try {
-                for (final SearchHit hit : hits) {
-                    final String index = bulkIndex == null ? hit.getIndex()
-                            : bulkIndex;
-                    final String operation = "{\"index\":{\"_index\":\"" + index
-                            + "\",\"_id\":\"" + hit.getId() + "\"}}";
-                    final String source = XContentHelper.convertToJson(
-                            hit.getSourceRef(), true, false, XContentType.JSON);
-                    writer.append(operation).append('\n');
-                    writer.append(source).append('\n');
-                }
-
-                if (size == 0 || scrollId == null) {
-                    // end
-                    writer.flush();
-                    close();
-                    listener.onResponse(null);
-                } else {
-                    client.prepareSearchScroll(scrollId)
-                            .setScroll(RequestUtil.getScroll(request))
-                            .execute(this);
-                }
-            } catch (final Exception e) {
-                onFailure(e);
+        public void write(final SearchHits hits) throws IOException {
+            for (final SearchHit hit : hits) {
+                final String index = bulkIndex == null ? hit.getIndex()
+                        : bulkIndex;
+                final String operation = "{\"index\":{\"_index\":\"" + index
+                        + "\",\"_id\":\"" + hit.getId() + "\"}}\n";
+                writer.write(operation.getBytes(StandardCharsets.UTF_8));
+                writeSource(writer, hit.getSourceRef());
+                writer.write('\n');
             }
         }
 
         @Override
-        public void onFailure(final Exception e) {
-            try {
-                close();
-            } catch (final Exception e1) {
-                // ignore
-            }
-            listener.onFailure(new ElasticsearchException("Failed to write data.",
-                    e));
+        public void finish() throws IOException {
+            writer.flush();
+            close();
         }
 
-        private void close() {
+        @Override
+        public void close() {
             if (writer != null) {
                 try {
                     writer.close();
@@ -0,0 +1,127 @@
+package org.codelibs.elasticsearch.df.content.json;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.df.content.ContentType;
+import org.codelibs.elasticsearch.df.content.ContentWriter;
+import org.codelibs.elasticsearch.df.content.DataContent;
+import org.codelibs.elasticsearch.df.util.StringUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+
+/**
+ * One source per line, without any header or action line, so that a file
+ * can be split at any line break. Metadata fields given by
+ * {@code ndjson.meta} are added at the start of each object.
+ */
+public class NdjsonContent extends DataContent {
+    private static final Logger logger = LogManager.getLogger(NdjsonContent.class);
+
+    private static final String INDEX = "_index";
+
+    private static final String ID = "_id";
+
+    private final String[] metaFields;
+
+    public NdjsonContent(final Client client, final RestRequest request, final ContentType contentType) {
+        super(client, request, contentType);
+
+        metaFields = request.paramAsStringArray("ndjson.meta", StringUtils.EMPTY_STRINGS);
+        for (final String field : metaFields) {
+            if (!INDEX.equals(field) && !ID.equals(field)) {
+                throw new IllegalArgumentException("Unsupported ndjson.meta: " + field);
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("metaFields: {}", String.join(",", metaFields));
+        }
+    }
+
+    @Override
+    protected ContentWriter createWriter(final File outputFile) {
+        return new NdjsonContentWriter(outputFile);
+    }
+
+    private static void appendString(final StringBuilder buf, final String value) {
+        buf.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buf.append('\\').append(c);
+            } else if (c < 0x20) {
+                buf.append(String.format("\\u%04x", (int) c));
+            } else {
+                buf.append(c);
+            }
+        }
+        buf.append('"');
+    }
+
+    protected class NdjsonContentWriter extends ContentWriter {
+        protected OutputStream writer;
+
+        private final StringBuilder members = new StringBuilder();
+
+        protected NdjsonContentWriter(final File outputFile) {
+            super(outputFile, createCompressor());
+            try {
+                writer = new BufferedOutputStream(openOutputStream(), 64 * 1024);
+            } catch (final Exception e) {
+                throw new ElasticsearchException("Could not open "
+                        + outputFile.getAbsolutePath(), e);
+            }
+        }
+
+        @Override
+        public void write(final SearchHits hits) throws IOException {
+            for (final SearchHit hit : hits) {
+                JsonContent.writeSource(writer, hit.getSourceRef(), getMembers(hit));
+                writer.write('\n');
+            }
+        }
+
+        private byte[] getMembers(final SearchHit hit) {
+            if (metaFields.length == 0) {
+                return null;
+            }
+            members.setLength(0);
+            for (final String field : metaFields) {
+                if (members.length() > 0) {
+                    members.append(',');
+                }
+                appendString(members, field);
+                members.append(':');
+                appendString(members, INDEX.equals(field) ? hit.getIndex() : hit.getId());
+            }
+            return members.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+            close();
+        }
+
+        @Override
+        public void close() {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (final IOException e) {
+                    throw new ElasticsearchException("Could not close "
+                            + outputFile.getAbsolutePath(), e);
+                }
+            }
+        }
+    }
+}
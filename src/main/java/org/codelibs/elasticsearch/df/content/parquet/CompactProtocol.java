@@ -0,0 +1,102 @@
+package org.codelibs.elasticsearch.df.content.parquet;
+
+import java.nio.charset.StandardCharsets;
+
+import org.codelibs.elasticsearch.df.util.ByteArrayBuilder;
+
+/**
+ * Writer of the Thrift compact protocol, for the page headers and the
+ * footer of a Parquet file. Fields of a struct must be written in the
+ * order of their ids.
+ */
+class CompactProtocol {
+
+    static final int TYPE_BOOLEAN_TRUE = 1;
+
+    static final int TYPE_BOOLEAN_FALSE = 2;
+
+    static final int TYPE_I32 = 5;
+
+    static final int TYPE_I64 = 6;
+
+    static final int TYPE_BINARY = 8;
+
+    static final int TYPE_LIST = 9;
+
+    static final int TYPE_STRUCT = 12;
+
+    private final ByteArrayBuilder out;
+
+    // last field ids of the enclosing structs
+    private final int[] lastFieldIds = new int[16];
+
+    private int depth = 0;
+
+    CompactProtocol(final ByteArrayBuilder out) {
+        this.out = out;
+    }
+
+    private void fieldHeader(final int id, final int type) {
+        final int delta = id - lastFieldIds[depth];
+        if (delta > 0 && delta <= 15) {
+            out.write(delta << 4 | type);
+        } else {
+            out.write(type);
+            out.writeZigZagLong(id);
+        }
+        lastFieldIds[depth] = id;
+    }
+
+    void structBegin() {
+        lastFieldIds[++depth] = 0;
+    }
+
+    void structEnd() {
+        out.write(0);
+        depth--;
+    }
+
+    void fieldStructBegin(final int id) {
+        fieldHeader(id, TYPE_STRUCT);
+        structBegin();
+    }
+
+    void fieldI32(final int id, final int value) {
+        fieldHeader(id, TYPE_I32);
+        out.writeZigZagLong(value);
+    }
+
+    void fieldI64(final int id, final long value) {
+        fieldHeader(id, TYPE_I64);
+        out.writeZigZagLong(value);
+    }
+
+    void fieldBool(final int id, final boolean value) {
+        fieldHeader(id, value ? TYPE_BOOLEAN_TRUE : TYPE_BOOLEAN_FALSE);
+    }
+
+    void fieldString(final int id, final String value) {
+        fieldHeader(id, TYPE_BINARY);
+        string(value);
+    }
+
+    void fieldListBegin(final int id, final int elementType, final int size) {
+        fieldHeader(id, TYPE_LIST);
+        if (size < 15) {
+            out.write(size << 4 | elementType);
+        } else {
+            out.write(0xf0 | elementType);
+            out.writeVarLong(size);
+        }
+    }
+
+    void i32(final int value) {
+        out.writeZigZagLong(value);
+    }
+
+    void string(final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeVarLong(bytes.length);
+        out.write(bytes);
+    }
+}
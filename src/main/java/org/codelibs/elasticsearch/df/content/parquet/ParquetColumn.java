@@ -0,0 +1,506 @@
+package org.codelibs.elasticsearch.df.content.parquet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+import org.codelibs.elasticsearch.df.content.ColumnValues;
+import org.codelibs.elasticsearch.df.util.ByteArrayBuilder;
+
+/**
+ * Values of one optional column in the current row group.
+ *
+ * @see ColumnValues
+ */
+abstract class ParquetColumn {
+
+    static final int BOOLEAN = 0;
+
+    static final int INT32 = 1;
+
+    static final int INT64 = 2;
+
+    static final int FLOAT = 4;
+
+    static final int DOUBLE = 5;
+
+    static final int BYTE_ARRAY = 6;
+
+    static final int ENCODING_PLAIN = 0;
+
+    static final int ENCODING_PLAIN_DICTIONARY = 2;
+
+    static final int ENCODING_RLE = 3;
+
+    // dictionary page size above which values are written plain
+    private static final int MAX_DICTIONARY_SIZE = 1024 * 1024;
+
+    final String name;
+
+    final int type;
+
+    // one byte per row: 1 for a value, 0 for null
+    private final ByteArrayBuilder definitionLevels = new ByteArrayBuilder();
+
+    // rows with several values in a typed column, written as null
+    private long multiValuedRows = 0;
+
+    ParquetColumn(final String name, final int type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    /**
+     * Create a column for a field type of the mapping.
+     *
+     * @param name
+     * @param fieldType
+     * @return the column
+     */
+    static ParquetColumn create(final String name, final String fieldType) {
+        if (fieldType == null) {
+            return new StringColumn(name);
+        }
+        switch (fieldType) {
+        case "long":
+            return new Int64Column(name);
+        case "integer":
+        case "short":
+        case "byte":
+            return new Int32Column(name);
+        case "double":
+        case "scaled_float":
+            return new DoubleColumn(name);
+        case "float":
+        case "half_float":
+            return new FloatColumn(name);
+        case "boolean":
+            return new BooleanColumn(name);
+        default:
+            return new StringColumn(name);
+        }
+    }
+
+    void add(Object value) {
+        if (type != BYTE_ARRAY && ColumnValues.isMultiple(value)) {
+            // no list columns: one document must not abort the export
+            multiValuedRows++;
+            definitionLevels.write(0);
+            return;
+        }
+        value = ColumnValues.single(name, value, type == BYTE_ARRAY);
+        definitionLevels.write(value != null && addValue(value) ? 1 : 0);
+    }
+
+    /**
+     * @param value
+     * @return false if the value is malformed
+     */
+    protected abstract boolean addValue(Object value);
+
+    int getRows() {
+        return definitionLevels.size();
+    }
+
+    long getMultiValuedRows() {
+        return multiValuedRows;
+    }
+
+    long getBufferedBytes() {
+        return definitionLevels.size() + getValueBytes();
+    }
+
+    protected abstract long getValueBytes();
+
+    /**
+     * @return true if the values of the row group are dictionary encoded,
+     *         which is only the case for a {@link DictionaryColumn}
+     */
+    boolean hasDictionary() {
+        return false;
+    }
+
+    int getValueEncoding() {
+        return ENCODING_PLAIN;
+    }
+
+    /**
+     * Write the body of a data page with all rows of the row group.
+     *
+     * @param out
+     */
+    void writeDataPage(final ByteArrayBuilder out) {
+        final int start = out.size();
+        out.writeIntLE(0);
+        final byte[] levels = definitionLevels.bytes();
+        writeHybrid(out, i -> levels[i], definitionLevels.size(), 1);
+        out.setIntLE(start, out.size() - start - 4);
+        writeValues(out);
+    }
+
+    protected abstract void writeValues(ByteArrayBuilder out);
+
+    void reset() {
+        definitionLevels.reset();
+    }
+
+    /**
+     * Write values with the RLE/bit-packing hybrid encoding. Runs of 8 or
+     * more equal values are run-length encoded and the others are
+     * bit-packed in groups of 8.
+     *
+     * @param out
+     * @param values
+     * @param count
+     * @param bitWidth
+     */
+    static void writeHybrid(final ByteArrayBuilder out, final IntUnaryOperator values, final int count,
+            final int bitWidth) {
+        int i = 0;
+        while (i < count) {
+            final int value = values.applyAsInt(i);
+            int run = 1;
+            while (i + run < count && values.applyAsInt(i + run) == value) {
+                run++;
+            }
+            if (run >= 8) {
+                out.writeVarLong((long) run << 1);
+                for (int b = 0; b < bitWidth; b += 8) {
+                    out.write(value >>> b);
+                }
+                i += run;
+                continue;
+            }
+            final int start = i;
+            int groups = 0;
+            do {
+                groups++;
+                i += 8;
+            } while (i < count && !isRun(values, i, count));
+            out.writeVarLong((long) groups << 1 | 1);
+            long buffer = 0;
+            int bits = 0;
+            for (int j = start; j < i; j++) {
+                // the last group is padded with zeros
+                buffer |= (j < count ? values.applyAsInt(j) & 0xffffffffL : 0) << bits;
+                bits += bitWidth;
+                while (bits >= 8) {
+                    out.write((int) buffer);
+                    buffer >>>= 8;
+                    bits -= 8;
+                }
+            }
+        }
+    }
+
+    private static boolean isRun(final IntUnaryOperator values, final int start, final int count) {
+        if (start + 8 > count) {
+            return false;
+        }
+        final int value = values.applyAsInt(start);
+        for (int i = start + 1; i < start + 8; i++) {
+            if (values.applyAsInt(i) != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static class Int64Column extends ParquetColumn {
+        private final ByteArrayBuilder values = new ByteArrayBuilder();
+
+        Int64Column(final String name) {
+            super(name, INT64);
+        }
+
+        @Override
+        protected boolean addValue(final Object value) {
+            try {
+                values.writeLongLE(ColumnValues.toLong(value));
+                return true;
+            } catch (final NumberFormatException e) {
+                return false;
+            }
+        }
+
+        @Override
+        protected long getValueBytes() {
+            return values.size();
+        }
+
+        @Override
+        protected void writeValues(final ByteArrayBuilder out) {
+            out.write(values.bytes(), 0, values.size());
+        }
+
+        @Override
+        void reset() {
+            super.reset();
+            values.reset();
+        }
+    }
+
+    static class Int32Column extends ParquetColumn {
+        private final ByteArrayBuilder values = new ByteArrayBuilder();
+
+        Int32Column(final String name) {
+            super(name, INT32);
+        }
+
+        @Override
+        protected boolean addValue(final Object value) {
+            try {
+                final long v = ColumnValues.toLong(value);
+                if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+                    return false;
+                }
+                values.writeIntLE((int) v);
+                return true;
+            } catch (final NumberFormatException e) {
+                return false;
+            }
+        }
+
+        @Override
+        protected long getValueBytes() {
+            return values.size();
+        }
+
+        @Override
+        protected void writeValues(final ByteArrayBuilder out) {
+            out.write(values.bytes(), 0, values.size());
+        }
+
+        @Override
+        void reset() {
+            super.reset();
+            values.reset();
+        }
+    }
+
+    static class DoubleColumn extends ParquetColumn {
+        private final ByteArrayBuilder values = new ByteArrayBuilder();
+
+        DoubleColumn(final String name) {
+            super(name, DOUBLE);
+        }
+
+        @Override
+        protected boolean addValue(final Object value) {
+            try {
+                values.writeLongLE(Double.doubleToRawLongBits(ColumnValues.toDouble(value)));
+                return true;
+            } catch (final NumberFormatException e) {
+                return false;
+            }
+        }
+
+        @Override
+        protected long getValueBytes() {
+            return values.size();
+        }
+
+        @Override
+        protected void writeValues(final ByteArrayBuilder out) {
+            out.write(values.bytes(), 0, values.size());
+        }
+
+        @Override
+        void reset() {
+            super.reset();
+            values.reset();
+        }
+    }
+
+    static class FloatColumn extends ParquetColumn {
+        private final ByteArrayBuilder values = new ByteArrayBuilder();
+
+        FloatColumn(final String name) {
+            super(name, FLOAT);
+        }
+
+        @Override
+        protected boolean addValue(final Object value) {
+            try {
+                values.writeIntLE(Float.floatToRawIntBits((float) ColumnValues.toDouble(value)));
+                return true;
+            } catch (final NumberFormatException e) {
+                return false;
+            }
+        }
+
+        @Override
+        protected long getValueBytes() {
+            return values.size();
+        }
+
+        @Override
+        protected void writeValues(final ByteArrayBuilder out) {
+            out.write(values.bytes(), 0, values.size());
+        }
+
+        @Override
+        void reset() {
+            super.reset();
+            values.reset();
+        }
+    }
+
+    static class BooleanColumn extends ParquetColumn {
+        // one byte per value, packed into bits when written
+        private final ByteArrayBuilder values = new ByteArrayBuilder();
+
+        BooleanColumn(final String name) {
+            super(name, BOOLEAN);
+        }
+
+        @Override
+        protected boolean addValue(final Object value) {
+            final Boolean b = ColumnValues.toBoolean(value);
+            if (b == null) {
+                return false;
+            }
+            values.write(b ? 1 : 0);
+            return true;
+        }
+
+        @Override
+        protected long getValueBytes() {
+            return values.size();
+        }
+
+        @Override
+        protected void writeValues(final ByteArrayBuilder out) {
+            final byte[] bytes = values.bytes();
+            for (int i = 0; i < values.size(); i += 8) {
+                int b = 0;
+                for (int j = 0; j < 8 && i + j < values.size(); j++) {
+                    b |= bytes[i + j] << j;
+                }
+                out.write(b);
+            }
+        }
+
+        @Override
+        void reset() {
+            super.reset();
+            values.reset();
+        }
+    }
+
+    /**
+     * A column which may write a dictionary page before its data page.
+     */
+    abstract static class DictionaryColumn extends ParquetColumn {
+        DictionaryColumn(final String name, final int type) {
+            super(name, type);
+        }
+
+        abstract int getDictionarySize();
+
+        abstract void writeDictionary(ByteArrayBuilder out);
+    }
+
+    /**
+     * UTF-8 strings, dictionary encoded unless the dictionary of the row
+     * group grows too large. Objects and arrays are written as JSON.
+     */
+    static class StringColumn extends DictionaryColumn {
+        private final Map<String, Integer> dictionary = new HashMap<>();
+
+        // plain encoded entries, which are also the plain encoded values
+        private final ByteArrayBuilder entries = new ByteArrayBuilder();
+
+        private int[] entryOffsets = new int[256];
+
+        private int[] indices = new int[1024];
+
+        private int count = 0;
+
+        StringColumn(final String name) {
+            super(name, BYTE_ARRAY);
+        }
+
+        @Override
+        protected boolean addValue(final Object value) {
+            final String text;
+            try {
+                text = ColumnValues.toText(value);
+            } catch (final IOException e) {
+                return false;
+            }
+            Integer index = dictionary.get(text);
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(text, index);
+                if (index == entryOffsets.length) {
+                    entryOffsets = Arrays.copyOf(entryOffsets, index * 2);
+                }
+                entryOffsets[index] = entries.size();
+                final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                entries.writeIntLE(bytes.length);
+                entries.write(bytes);
+            }
+            if (count == indices.length) {
+                indices = Arrays.copyOf(indices, count * 2);
+            }
+            indices[count++] = index;
+            return true;
+        }
+
+        @Override
+        protected long getValueBytes() {
+            // with the overhead of the dictionary map
+            return entries.size() + dictionary.size() * 64L + count * 4L;
+        }
+
+        @Override
+        boolean hasDictionary() {
+            return count > 0 && entries.size() <= MAX_DICTIONARY_SIZE;
+        }
+
+        @Override
+        int getDictionarySize() {
+            return dictionary.size();
+        }
+
+        @Override
+        void writeDictionary(final ByteArrayBuilder out) {
+            out.write(entries.bytes(), 0, entries.size());
+        }
+
+        @Override
+        int getValueEncoding() {
+            return hasDictionary() ? ENCODING_PLAIN_DICTIONARY : ENCODING_PLAIN;
+        }
+
+        @Override
+        protected void writeValues(final ByteArrayBuilder out) {
+            if (hasDictionary()) {
+                final int bitWidth = Math.max(1, 32 - Integer.numberOfLeadingZeros(dictionary.size() - 1));
+                out.write(bitWidth);
+                final int[] values = indices;
+                writeHybrid(out, i -> values[i], count, bitWidth);
+                return;
+            }
+            final byte[] bytes = entries.bytes();
+            for (int i = 0; i < count; i++) {
+                final int offset = entryOffsets[indices[i]];
+                final int length = bytes[offset] & 0xff | (bytes[offset + 1] & 0xff) << 8
+                        | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+                out.write(bytes, offset, length + 4);
+            }
+        }
+
+        @Override
+        void reset() {
+            super.reset();
+            dictionary.clear();
+            entries.reset();
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package org.codelibs.elasticsearch.df.content.parquet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.df.content.ContentType;
+import org.codelibs.elasticsearch.df.content.ContentWriter;
+import org.codelibs.elasticsearch.df.content.DataContent;
+import org.codelibs.elasticsearch.df.content.SourceExtractor;
+import org.codelibs.elasticsearch.df.util.ByteArrayBuilder;
+import org.codelibs.elasticsearch.df.util.StringUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+
+import io.airlift.compress.snappy.SnappyCompressor;
+import io.airlift.compress.zstd.ZstdCompressor;
+
+/**
+ * Apache Parquet output. Columns and their types come from the mappings,
+ * and rows are buffered per column until a row group is complete. A row
+ * group holds one dictionary page, if any, and one data page per column.
+ */
+public class ParquetContent extends DataContent {
+    private static final Logger logger = LogManager.getLogger(ParquetContent.class);
+
+    private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int PAGE_DATA = 0;
+
+    private static final int PAGE_DICTIONARY = 2;
+
+    private static final int CONVERTED_UTF8 = 0;
+
+    private static final int REPETITION_OPTIONAL = 1;
+
+    private final Codec codec;
+
+    private final int rowGroupPages;
+
+    private final long rowGroupSize;
+
+    private final String[] fields;
+
+    private Map<String, String> columnTypes;
+
+    public ParquetContent(final Client client, final RestRequest request, final ContentType contentType) {
+        super(client, request, contentType);
+
+        codec = Codec.of(request.param("parquet.compression", "snappy"));
+        rowGroupPages = request.paramAsInt("parquet.row_group.pages", 1000);
+        if (rowGroupPages <= 0) {
+            throw new IllegalArgumentException("parquet.row_group.pages must be positive: " + rowGroupPages);
+        }
+        rowGroupSize = ByteSizeValue.parseBytesSizeValue(request.param("parquet.row_group.size", "64mb"),
+                "parquet.row_group.size").getBytes();
+
+        String fields_name = "fields_name";
+        if (request.hasParam("fl")) {
+            fields_name = "fl";
+        }
+        final String[] names = request.paramAsStringArray(fields_name, StringUtils.EMPTY_STRINGS);
+        for (int i = 0; i < names.length; i++) {
+            names[i] = names[i].trim();
+        }
+        fields = names.length == 0 ? null : names;
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("codec: {}, rowGroupPages: {}, rowGroupSize: {}, fields: {}", codec, rowGroupPages,
+                    rowGroupSize, fields == null ? null : String.join(",", fields));
+        }
+    }
+
+    @Override
+    protected void prepare(final ActionListener<Void> listener) {
+        // the schema is written at the end, but cannot change between row
+        // groups
+        resolveMapping(ActionListener.map(listener, mapping -> {
+            if (fields == null) {
+                columnTypes = mapping;
+            } else {
+                columnTypes = new LinkedHashMap<>();
+                for (final String field : fields) {
+                    columnTypes.put(field, mapping.get(field));
+                }
+            }
+            return null;
+        }));
+    }
+
+    @Override
+    public String[] getSourceIncludes() {
+        return fields;
+    }
+
+    @Override
+    public String[] getDocValueFields() {
+        return fields;
+    }
+
+    @Override
+    protected ContentWriter createWriter(final File outputFile) {
+        return new ParquetContentWriter(outputFile);
+    }
+
+    enum Codec {
+        NONE(0), SNAPPY(1), GZIP(2), ZSTD(6);
+
+        private final int id;
+
+        Codec(final int id) {
+            this.id = id;
+        }
+
+        static Codec of(final String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported parquet.compression: " + name);
+            }
+        }
+    }
+
+    /**
+     * Metadata of a column chunk for the footer.
+     */
+    private static class ColumnChunk {
+        private final ParquetColumn column;
+
+        private final long numValues;
+
+        private final boolean dictionary;
+
+        private final int encoding;
+
+        private long dictionaryPageOffset = -1;
+
+        private long dataPageOffset;
+
+        private long uncompressedSize = 0;
+
+        private long compressedSize = 0;
+
+        private ColumnChunk(final ParquetColumn column) {
+            this.column = column;
+            this.numValues = column.getRows();
+            this.dictionary = column.hasDictionary();
+            this.encoding = column.getValueEncoding();
+        }
+
+        private long getFileOffset() {
+            return dictionary ? dictionaryPageOffset : dataPageOffset;
+        }
+
+        /**
+         * @return the encodings of the values, the levels and the dictionary
+         *         page, each once
+         */
+        private Set<Integer> getEncodings() {
+            final Set<Integer> encodings = new TreeSet<>();
+            encodings.add(encoding);
+            encodings.add(ParquetColumn.ENCODING_RLE);
+            if (dictionary) {
+                encodings.add(ParquetColumn.ENCODING_PLAIN_DICTIONARY);
+            }
+            return encodings;
+        }
+    }
+
+    private static class RowGroup {
+        private final List<ColumnChunk> columns = new ArrayList<>();
+
+        private long numRows;
+
+        private long totalByteSize;
+    }
+
+    protected class ParquetContentWriter extends ContentWriter {
+        protected OutputStream out;
+
+        private long position = 0;
+
+        private List<ParquetColumn> columns;
+
+        // fixed columns: values are read from the source bytes
+        private SourceExtractor extractor;
+
+        private Object[] values;
+
+        private final List<RowGroup> rowGroups = new ArrayList<>();
+
+        private int pages = 0;
+
+        private final ByteArrayBuilder page = new ByteArrayBuilder(64 * 1024);
+
+        private final ByteArrayBuilder compressed = new ByteArrayBuilder(64 * 1024);
+
+        private final ByteArrayBuilder header = new ByteArrayBuilder();
+
+        private io.airlift.compress.Compressor pageCompressor;
+
+        private byte[] compressBuffer = new byte[0];
+
+        protected ParquetContentWriter(final File outputFile) {
+            super(outputFile, createCompressor());
+            try {
+                final Map<String, String> types = columnTypes == null ? Collections.emptyMap() : columnTypes;
+                columns = new ArrayList<>(types.size());
+                for (final Map.Entry<String, String> entry : types.entrySet()) {
+                    columns.add(ParquetColumn.create(entry.getKey(), entry.getValue()));
+                }
+                values = new Object[columns.size()];
+                if (!docValues) {
+                    extractor = new SourceExtractor(types.keySet(), true);
+                }
+                out = new BufferedOutputStream(openOutputStream(), 64 * 1024);
+                write(MAGIC, 0, MAGIC.length);
+            } catch (final Exception e) {
+                close();
+                throw new ElasticsearchException("Could not open "
+                        + outputFile.getAbsolutePath(), e);
+            }
+        }
+
+        private void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            out.write(bytes, offset, length);
+            position += length;
+        }
+
+        @Override
+        public void write(final SearchHits hits) throws IOException {
+            for (final SearchHit hit : hits) {
+                if (extractor != null) {
+                    extractor.extract(hit.getSourceRef(), values);
+                } else {
+                    final Map<String, Object> dataMap = getFlatMap(hit);
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = dataMap.get(columns.get(i).name);
+                    }
+                }
+                for (int i = 0; i < values.length; i++) {
+                    columns.get(i).add(values[i]);
+                }
+            }
+            pages++;
+            if (pages >= rowGroupPages || getBufferedBytes() >= rowGroupSize) {
+                writeRowGroup();
+            }
+        }
+
+        private long getBufferedBytes() {
+            long size = 0;
+            for (final ParquetColumn column : columns) {
+                size += column.getBufferedBytes();
+            }
+            return size;
+        }
+
+        private void writeRowGroup() throws IOException {
+            pages = 0;
+            final RowGroup rowGroup = new RowGroup();
+            rowGroup.numRows = columns.isEmpty() ? 0 : columns.get(0).getRows();
+            if (rowGroup.numRows == 0) {
+                return;
+            }
+            for (final ParquetColumn column : columns) {
+                final ColumnChunk chunk = new ColumnChunk(column);
+                if (chunk.dictionary) {
+                    final ParquetColumn.DictionaryColumn dictionaryColumn = (ParquetColumn.DictionaryColumn) column;
+                    chunk.dictionaryPageOffset = position;
+                    page.reset();
+                    dictionaryColumn.writeDictionary(page);
+                    writePage(chunk, PAGE_DICTIONARY, dictionaryColumn.getDictionarySize());
+                }
+                chunk.dataPageOffset = position;
+                page.reset();
+                column.writeDataPage(page);
+                writePage(chunk, PAGE_DATA, column.getRows());
+                rowGroup.columns.add(chunk);
+                rowGroup.totalByteSize += chunk.uncompressedSize;
+                column.reset();
+            }
+            rowGroups.add(rowGroup);
+        }
+
+        private void writePage(final ColumnChunk chunk, final int pageType, final int numValues) throws IOException {
+            final byte[] body;
+            final int bodyLength;
+            if (codec == Codec.NONE) {
+                body = page.bytes();
+                bodyLength = page.size();
+            } else {
+                compress();
+                body = compressed.bytes();
+                bodyLength = compressed.size();
+            }
+            header.reset();
+            final CompactProtocol protocol = new CompactProtocol(header);
+            protocol.structBegin();
+            protocol.fieldI32(1, pageType);
+            protocol.fieldI32(2, page.size());
+            protocol.fieldI32(3, bodyLength);
+            if (pageType == PAGE_DATA) {
+                protocol.fieldStructBegin(5);
+                protocol.fieldI32(1, numValues);
+                protocol.fieldI32(2, chunk.encoding);
+                protocol.fieldI32(3, ParquetColumn.ENCODING_RLE);
+                protocol.fieldI32(4, ParquetColumn.ENCODING_RLE);
+                protocol.structEnd();
+            } else {
+                protocol.fieldStructBegin(7);
+                protocol.fieldI32(1, numValues);
+                protocol.fieldI32(2, ParquetColumn.ENCODING_PLAIN_DICTIONARY);
+                protocol.structEnd();
+            }
+            protocol.structEnd();
+            write(header.bytes(), 0, header.size());
+            write(body, 0, bodyLength);
+            chunk.uncompressedSize += header.size() + page.size();
+            chunk.compressedSize += header.size() + bodyLength;
+        }
+
+        private void compress() throws IOException {
+            compressed.reset();
+            if (codec == Codec.GZIP) {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    page.writeTo(gzip);
+                }
+                return;
+            }
+            if (pageCompressor == null) {
+                pageCompressor = codec == Codec.SNAPPY ? new SnappyCompressor() : new ZstdCompressor();
+            }
+            final int maxLength = pageCompressor.maxCompressedLength(page.size());
+            if (compressBuffer.length < maxLength) {
+                compressBuffer = new byte[maxLength];
+            }
+            final int length = pageCompressor.compress(page.bytes(), 0, page.size(), compressBuffer, 0, maxLength);
+            compressed.write(compressBuffer, 0, length);
+        }
+
+        private void writeFooter() throws IOException {
+            header.reset();
+            final CompactProtocol protocol = new CompactProtocol(header);
+            protocol.structBegin();
+            protocol.fieldI32(1, 1);
+            protocol.fieldListBegin(2, CompactProtocol.TYPE_STRUCT, columns.size() + 1);
+            protocol.structBegin();
+            protocol.fieldString(4, "schema");
+            protocol.fieldI32(5, columns.size());
+            protocol.structEnd();
+            for (final ParquetColumn column : columns) {
+                protocol.structBegin();
+                protocol.fieldI32(1, column.type);
+                protocol.fieldI32(3, REPETITION_OPTIONAL);
+                protocol.fieldString(4, column.name);
+                if (column.type == ParquetColumn.BYTE_ARRAY) {
+                    protocol.fieldI32(6, CONVERTED_UTF8);
+                }
+                protocol.structEnd();
+            }
+            protocol.fieldI64(3, rowGroups.stream().mapToLong(r -> r.numRows).sum());
+            protocol.fieldListBegin(4, CompactProtocol.TYPE_STRUCT, rowGroups.size());
+            for (final RowGroup rowGroup : rowGroups) {
+                protocol.structBegin();
+                protocol.fieldListBegin(1, CompactProtocol.TYPE_STRUCT, rowGroup.columns.size());
+                for (final ColumnChunk chunk : rowGroup.columns) {
+                    protocol.structBegin();
+                    protocol.fieldI64(2, chunk.getFileOffset());
+                    protocol.fieldStructBegin(3);
+                    protocol.fieldI32(1, chunk.column.type);
+                    final Set<Integer> encodings = chunk.getEncodings();
+                    protocol.fieldListBegin(2, CompactProtocol.TYPE_I32, encodings.size());
+                    for (final Integer encoding : encodings) {
+                        protocol.i32(encoding);
+                    }
+                    protocol.fieldListBegin(3, CompactProtocol.TYPE_BINARY, 1);
+                    protocol.string(chunk.column.name);
+                    protocol.fieldI32(4, codec.id);
+                    protocol.fieldI64(5, chunk.numValues);
+                    protocol.fieldI64(6, chunk.uncompressedSize);
+                    protocol.fieldI64(7, chunk.compressedSize);
+                    protocol.fieldI64(9, chunk.dataPageOffset);
+                    if (chunk.dictionary) {
+                        protocol.fieldI64(11, chunk.dictionaryPageOffset);
+                    }
+                    protocol.structEnd();
+                    protocol.structEnd();
+                }
+                protocol.fieldI64(2, rowGroup.totalByteSize);
+                protocol.fieldI64(3, rowGroup.numRows);
+                protocol.structEnd();
+            }
+            protocol.fieldString(6, "elasticsearch-dataformat");
+            protocol.structEnd();
+            final int length = header.size();
+            header.writeIntLE(length);
+            header.write(MAGIC);
+            write(header.bytes(), 0, header.size());
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writeRowGroup();
+            writeFooter();
+            for (final ParquetColumn column : columns) {
+                if (column.getMultiValuedRows() > 0) {
+                    logger.warn("{} rows of {} have multiple values, which are written as null.",
+                            column.getMultiValuedRows(), column.name);
+                }
+            }
+            out.flush();
+            close();
+        }
+
+        @Override
+        public void close() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (final IOException e) {
+                    throw new ElasticsearchException("Could not close "
+                            + outputFile.getAbsolutePath(), e);
+                }
+            }
+        }
+    }
+}
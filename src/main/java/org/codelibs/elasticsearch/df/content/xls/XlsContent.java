@@ -2,13 +2,11 @@ package org.codelibs.elasticsearch.df.content.xls;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
@@ -23,16 +21,14 @@ import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.xssf.streaming.SXSSFSheet;
 import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.codelibs.elasticsearch.df.content.ContentType;
+import org.codelibs.elasticsearch.df.content.ContentWriter;
 import org.codelibs.elasticsearch.df.content.DataContent;
-import org.codelibs.elasticsearch.df.util.MapUtils;
-import org.codelibs.elasticsearch.df.util.RequestUtil;
+import org.codelibs.elasticsearch.df.content.SourceExtractor;
 import org.codelibs.elasticsearch.df.util.StringUtils;
 import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.SpecialPermission;
 import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.SpecialPermission;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
@@ -85,21 +81,35 @@ public class XlsContent extends DataContent {
     }
 
     @Override
-    public void write(final File outputFile, final SearchResponse response, final RestChannel channel,
-                      final ActionListener<Void> listener) {
-        try {
-            final OnLoadListener onLoadListener = new OnLoadListener(outputFile, listener);
-            onLoadListener.onResponse(response);
-        } catch (final Exception e) {
-            listener.onFailure(new ElasticsearchException("Failed to write data.", e));
+    protected void prepare(final ActionListener<Void> listener) {
+        if (!mappingSchema || !modifiableFieldSet) {
+            listener.onResponse(null);
+            return;
         }
+        resolveSchema(ActionListener.map(listener, fields -> {
+            headerSet = Collections.unmodifiableSet(fields);
+            modifiableFieldSet = false;
+            return null;
+        }));
     }
 
-    protected class OnLoadListener implements ActionListener<SearchResponse> {
+    @Override
+    public String[] getSourceIncludes() {
+        // a flattened name such as a.b.c also matches the nested objects
+        return modifiableFieldSet ? null : headerSet.toArray(new String[headerSet.size()]);
+    }
 
-        protected ActionListener<Void> listener;
+    @Override
+    public String[] getDocValueFields() {
+        return getSourceIncludes();
+    }
 
-        protected File outputFile;
+    @Override
+    protected ContentWriter createWriter(final File outputFile) {
+        return new XlsContentWriter(outputFile);
+    }
+
+    protected class XlsContentWriter extends ContentWriter {
 
         private Workbook workbook;
 
@@ -107,9 +117,13 @@ public class XlsContent extends DataContent {
 
         private int currentRowNumber = 0;
 
-        protected OnLoadListener(final File outputFile, final ActionListener<Void> listener) {
-            this.outputFile = outputFile;
-            this.listener = listener;
+        // fixed columns: values are read from the source bytes
+        private SourceExtractor extractor;
+
+        private Object[] values;
+
+        protected XlsContentWriter(final File outputFile) {
+            super(outputFile, createCompressor());
 
             if (isExcel2007) {
                 final SecurityManager sm = System.getSecurityManager();
@@ -142,97 +156,94 @@ public class XlsContent extends DataContent {
         }
 
         @Override
-        public void onResponse(final SearchResponse response) {
-            final String scrollId = response.getScrollId();
-
-            try {
-                final SearchHits hits = response.getHits();
-
-                final int size = hits.getHits().length;
-                if (logger.isDebugEnabled()) {
-                    logger.debug("scrollId: {}, totalHits: {}, hits: {}, current: {}",
-                            scrollId, hits.getTotalHits(), size, (currentRowNumber + size));
-                }
-                for (final SearchHit hit : hits) {
-                    final Map<String, Object> sourceMap = hit.getSourceAsMap();
-                    final Map<String, Object> dataMap = new HashMap<>();
-                    MapUtils.convertToFlatMap("", sourceMap, dataMap);
-
-                    for (final String key : dataMap.keySet()) {
-                        if (modifiableFieldSet && !headerSet.contains(key)) {
-                            headerSet.add(key);
-                        }
-                    }
-
-                    if (!headerFlushed && appendHeader) {
-                        final Row headerRow = sheet.createRow(0);
-                        int count = 0;
-                        for (final String value : headerSet) {
-                            final Cell cell = headerRow.createCell(count);
-                            cell.setCellValue(value);
-                            count++;
-                        }
-                        headerFlushed = true;
+        public void write(final SearchHits hits) throws IOException {
+            if (extractor == null && !modifiableFieldSet && !docValues) {
+                extractor = new SourceExtractor(headerSet);
+                values = new Object[headerSet.size()];
+            }
+            for (final SearchHit hit : hits) {
+                final Map<String, Object> dataMap;
+                if (extractor != null) {
+                    extractor.extract(hit.getSourceRef(), values);
+                    dataMap = null;
+                } else {
+                    dataMap = getFlatMap(hit);
+                    if (modifiableFieldSet) {
+                        headerSet.addAll(dataMap.keySet());
                     }
+                }
 
-                    final Row row = sheet.createRow(appendHeader ? currentRowNumber + 1
-                                    : currentRowNumber);
-
+                if (!headerFlushed && appendHeader) {
+                    final Row headerRow = sheet.createRow(0);
                     int count = 0;
-                    for (final String name : headerSet) {
-                        final Object value = dataMap.get(name);
-                        final Cell cell = row.createCell(count);
-                        if (value != null
-                                && value.toString().trim().length() > 0) {
-                            cell.setCellValue(value.toString());
-                        } else {
-                            cell.setCellValue(DEFAULT_HEADER_COLUMN);
-                        }
+                    for (final String value : headerSet) {
+                        final Cell cell = headerRow.createCell(count);
+                        cell.setCellValue(value);
                         count++;
                     }
-
-                    flushSheet(currentRowNumber, sheet);
-                    currentRowNumber++;
+                    headerFlushed = true;
                 }
 
-                if (size == 0 || scrollId == null) {
-                    flushSheet(0, sheet);
-                    try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(outputFile))) {
-                        final SecurityManager sm = System.getSecurityManager();
-                        if (sm != null) {
-                            sm.checkPermission(new SpecialPermission());
-                        }
-                        AccessController
-                                .doPrivileged((PrivilegedAction<Void>) () -> {
-                                    try {
-                                        workbook.write(stream);
-                                    } catch (final IOException e) {
-                                        throw new ElasticsearchException(e);
-                                    }
-                                    return null;
-                                });
-
-                        stream.flush();
-                    } finally {
-                        disposeWorkbook(workbook);
+                final Row row = sheet.createRow(appendHeader ? currentRowNumber + 1
+                                : currentRowNumber);
+
+                int count = 0;
+                for (final String name : headerSet) {
+                    final Object value = dataMap != null ? dataMap.get(name) : values[count];
+                    final Cell cell = row.createCell(count);
+                    if (value != null
+                            && value.toString().trim().length() > 0) {
+                        cell.setCellValue(value.toString());
+                    } else {
+                        cell.setCellValue(DEFAULT_HEADER_COLUMN);
                     }
-                    // end
-                    listener.onResponse(null);
-                } else {
-                    client.prepareSearchScroll(scrollId)
-                            .setScroll(RequestUtil.getScroll(request))
-                            .execute(this);
+                    count++;
                 }
-            } catch (final Exception e) {
-                onFailure(e);
+
+                currentRowNumber++;
+                // the header row stays in memory until the first flush
+                flushSheet(currentRowNumber, sheet);
             }
         }
 
         @Override
-        public void onFailure(final Exception e) {
-            listener.onFailure(new ElasticsearchException("Failed to write data.",
-                    e));
+        public void finish() throws IOException {
+            final Row headerRow = sheet.getRow(0);
+            if (appendHeader && modifiableFieldSet && headerRow != null) {
+                // columns found after the first row; for xlsx, the header
+                // row is only kept until SXSSF_FLUSH_COUNT rows are written
+                int count = 0;
+                for (final String value : headerSet) {
+                    final Cell cell = headerRow.getCell(count);
+                    (cell != null ? cell : headerRow.createCell(count)).setCellValue(value);
+                    count++;
+                }
+            }
+            flushSheet(0, sheet);
+            try (OutputStream stream = new BufferedOutputStream(openOutputStream())) {
+                final SecurityManager sm = System.getSecurityManager();
+                if (sm != null) {
+                    sm.checkPermission(new SpecialPermission());
+                }
+                AccessController
+                        .doPrivileged((PrivilegedAction<Void>) () -> {
+                            try {
+                                workbook.write(stream);
+                            } catch (final IOException e) {
+                                throw new ElasticsearchException(e);
+                            }
+                            return null;
+                        });
+
+                stream.flush();
+            } finally {
+                disposeWorkbook(workbook);
+            }
         }
 
+        @Override
+        public void close() {
+            disposeWorkbook(workbook);
+        }
     }
 }
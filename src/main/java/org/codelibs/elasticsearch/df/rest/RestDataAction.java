@@ -6,23 +6,47 @@ import static org.elasticsearch.rest.RestRequest.Method.GET;
 import static org.elasticsearch.rest.RestRequest.Method.POST;
 import static org.elasticsearch.rest.RestStatus.OK;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.df.action.ExportAction;
+import org.codelibs.elasticsearch.df.action.ExportRequest;
+import org.codelibs.elasticsearch.df.action.ExportResponse;
+import org.codelibs.elasticsearch.df.content.Compression;
 import org.codelibs.elasticsearch.df.content.ContentType;
 import org.codelibs.elasticsearch.df.content.DataContent;
+import org.codelibs.elasticsearch.df.search.Paginator;
+import org.codelibs.elasticsearch.df.search.ScrollPaginator;
+import org.codelibs.elasticsearch.df.search.SearchAfterPaginator;
+import org.codelibs.elasticsearch.df.service.ExportCache;
+import org.codelibs.elasticsearch.df.service.ExportJob;
+import org.codelibs.elasticsearch.df.service.ExportJobService;
+import org.codelibs.elasticsearch.df.service.ExportScheduler;
+import org.codelibs.elasticsearch.df.service.SpillDirectory;
+import org.codelibs.elasticsearch.df.util.FileUtils;
+import org.codelibs.elasticsearch.df.util.RequestUtil;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.search.SearchRequest;
-import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.client.node.NodeClient;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.rest.BaseRestHandler;
@@ -31,25 +55,53 @@ import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.rest.action.RestCancellableNodeClient;
 import org.elasticsearch.rest.action.search.RestSearchAction;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.elasticsearch.tasks.TaskCancelledException;
 
 public class RestDataAction extends BaseRestHandler {
 
     private static final float DEFAULT_LIMIT_PERCENTAGE = 10;
 
+    private static final String PAGINATION_SCROLL = "scroll";
+
+    private static final String PAGINATION_SEARCH_AFTER = "search_after";
+
     private static Logger logger = LogManager.getLogger(RestDataAction.class);
 
     private final long maxMemory;
     private final long defaultLimit;
+    private final ExportJobService jobService;
+    private final ExportCache cache;
+    private final SpillDirectory spill;
+    private final String fairness;
+
+    // followers of running downloads, by request key (which covers the caller) and limit
+    private final Map<String, List<ContentListener>> runningExports = new HashMap<>();
 
     public RestDataAction(final Settings settings,
-                          final RestController restController) {
+                          final RestController restController,
+                          final ExportJobService jobService,
+                          final ExportCache cache,
+                          final SpillDirectory spill) {
         this.maxMemory = Runtime.getRuntime().maxMemory();
         this.defaultLimit = (long) (maxMemory
                 * (DEFAULT_LIMIT_PERCENTAGE / 100F));
+        this.jobService = jobService;
+        this.cache = cache;
+        this.spill = spill;
+        this.fairness = ExportScheduler.FAIRNESS_SETTING.get(settings);
         logger.info("Default limit: {}", defaultLimit);
     }
 
+    public long getDefaultLimit() {
+        return defaultLimit;
+    }
+
     @Override
     public List<Route> routes() {
         return unmodifiableList(asList(
@@ -73,18 +125,11 @@ public class RestDataAction extends BaseRestHandler {
 
         final String file = request.param("file");
 
-        final long limitBytes;
-        String limitParamStr = request.param("limit");
-        if (Strings.isNullOrEmpty(limitParamStr)) {
-            limitBytes = defaultLimit;
-        } else {
-            if (limitParamStr.endsWith("%")) {
-                limitParamStr = limitParamStr.substring(0,
-                        limitParamStr.length() - 1);
-            }
-            limitBytes = (long) (maxMemory
-                    * (Float.parseFloat(limitParamStr) / 100F));
-        }
+        final long limitBytes = getLimit(request, maxMemory, defaultLimit);
+        final boolean waitForCompletion = request.paramAsBoolean("wait_for_completion", true);
+        // a download may be served from the cache or a running export
+        final boolean shared = request.paramAsBoolean("cache", true)
+                && waitForCompletion && Strings.isNullOrEmpty(file);
 
         final ContentType contentType = getContentType(request);
         if (contentType == null) {
@@ -95,8 +140,178 @@ public class RestDataAction extends BaseRestHandler {
         final DataContent dataContent = contentType.dataContent(client,
                 request);
 
-        return channel -> client.search(searchRequest, new SearchResponseListener(
-                channel, file, limitBytes, dataContent));
+        final String[] includes = dataContent.getSourceIncludes();
+        if (dataContent.isDocValues()) {
+            final String[] fields = dataContent.getDocValueFields();
+            if (fields == null) {
+                throw new IllegalArgumentException(
+                        "source_mode=docvalues requires fields_name with csv or xls format.");
+            }
+            // rows are built from doc values, without loading _source
+            searchRequest.source().fetchSource(false);
+            for (final String field : fields) {
+                searchRequest.source().docValueField(field);
+            }
+        } else if (includes != null && searchRequest.source().fetchSource() == null) {
+            // shards return the selected fields only
+            searchRequest.source().fetchSource(includes, null);
+        }
+
+        if (!waitForCompletion && searchRequest.source().trackTotalHitsUpTo() == null) {
+            // accurate total hits for the progress of the job
+            searchRequest.source().trackTotalHits(true);
+        }
+        final String identity = RequestUtil.getIdentity(request, client.threadPool().getThreadContext());
+        final String requestKey = shared ? ExportCache.createRequestKey(
+                request, identity, searchRequest, dataContent) : null;
+        final List<Paginator> paginators = createPaginators(request,
+                searchRequest, client);
+        final String tenant = getTenant(identity, searchRequest);
+
+        if (!waitForCompletion) {
+            final String fileName = contentType.fileName(request);
+            final String owner = identity;
+            return channel -> submitJob(channel, client, searchRequest, file, fileName,
+                    dataContent, paginators, tenant, owner);
+        }
+        return channel -> new ContentListener(channel, file, limitBytes,
+                dataContent, tenant).execute(
+                        new RestCancellableNodeClient(client, request.getHttpChannel()),
+                        searchRequest, requestKey, paginators);
+    }
+
+    private void submitJob(final RestChannel channel, final NodeClient client,
+            final SearchRequest searchRequest, final String file, final String fileName,
+            final DataContent dataContent, final List<Paginator> paginators,
+            final String tenant, final String owner) throws IOException {
+        final File outputFile;
+        if (Strings.isNullOrEmpty(file)) {
+            outputFile = spill.createFile("output_", ".dat");
+        } else {
+            outputFile = new File(file);
+            final File parentFile = outputFile.getParentFile();
+            if (parentFile != null && !parentFile.isDirectory()) {
+                throw new ElasticsearchException("Cannot create/access "
+                        + outputFile.getAbsolutePath());
+            }
+        }
+        final ExportJob job = jobService.submit(client,
+                new ExportRequest(dataContent, paginators, outputFile)
+                        .indices(searchRequest.indices(), searchRequest.indicesOptions())
+                        .tenant(tenant)
+                        .spliceHeader(Strings.isNullOrEmpty(file)),
+                fileName, Strings.isNullOrEmpty(file), owner);
+        final XContentBuilder builder = channel.newBuilder();
+        builder.startObject();
+        builder.field("acknowledged", true);
+        builder.field("id", job.getId());
+        builder.endObject();
+        channel.sendResponse(new BytesRestResponse(OK, builder));
+    }
+
+    /**
+     * Get the fairness group of the export for {@link ExportScheduler}.
+     *
+     * @param identity the identity of the caller
+     * @param searchRequest
+     * @return the caller identity or the target indices
+     */
+    private String getTenant(final String identity,
+            final SearchRequest searchRequest) {
+        if (ExportScheduler.FAIRNESS_INDEX.equals(fairness)) {
+            final String[] indices = searchRequest.indices();
+            return indices == null || indices.length == 0 ? "_all"
+                    : String.join(",", indices);
+        }
+        return identity.isEmpty() ? "_anonymous" : identity;
+    }
+
+    static long getLimit(final RestRequest request, final long maxMemory,
+            final long defaultLimit) {
+        String limitParamStr = request.param("limit");
+        if (Strings.isNullOrEmpty(limitParamStr)) {
+            return defaultLimit;
+        }
+        if (limitParamStr.endsWith("%")) {
+            limitParamStr = limitParamStr.substring(0,
+                    limitParamStr.length() - 1);
+        }
+        return (long) (maxMemory * (Float.parseFloat(limitParamStr) / 100F));
+    }
+
+    /**
+     * Send an output file. A header appended after the body is sent first.
+     *
+     * @param channel
+     * @param outputFile
+     * @param headerOffset the position of the header, or -1
+     * @param contentType
+     * @param compression
+     * @param fileName
+     */
+    static void sendFile(final RestChannel channel, final File outputFile,
+            final long headerOffset, final ContentType contentType,
+            final Compression compression, final String fileName) {
+        sendBytes(channel, readFile(outputFile, headerOffset), contentType, compression, fileName);
+    }
+
+    /**
+     * Read an output file, moving a header appended after the body to the
+     * front.
+     *
+     * @param outputFile
+     * @param headerOffset the position of the header, or -1
+     * @return the content
+     */
+    static BytesReference readFile(final File outputFile, final long headerOffset) {
+        try (FileChannel in = FileChannel.open(outputFile.toPath(),
+                StandardOpenOption.READ)) {
+            // paged buffer: no contiguous array and no extra copy when
+            // the bytes are handed over to the http layer
+            final long length = in.size();
+            if (length > Integer.MAX_VALUE) {
+                // the buffer of a response is indexed by int
+                throw new ElasticsearchException("Content size is too large " + length
+                        + ", use the file parameter to export it.");
+            }
+            final BytesStreamOutput out = new BytesStreamOutput((int) length);
+            final WritableByteChannel target = Channels.newChannel(out);
+            if (headerOffset >= 0) {
+                FileUtils.transfer(in, headerOffset, length - headerOffset, target);
+                FileUtils.transfer(in, 0, headerOffset, target);
+            } else {
+                FileUtils.transfer(in, 0, length, target);
+            }
+            return out.bytes();
+        } catch (final IOException e) {
+            throw new ElasticsearchException("Failed to read the content.", e);
+        }
+    }
+
+    /**
+     * Send the content of an output file.
+     *
+     * @param channel
+     * @param bytes
+     * @param contentType
+     * @param compression
+     * @param fileName
+     */
+    static void sendBytes(final RestChannel channel, final BytesReference bytes,
+            final ContentType contentType, final Compression compression,
+            final String fileName) {
+        try {
+            final BytesRestResponse response = new BytesRestResponse(
+                    RestStatus.OK, contentType.contentType(), bytes);
+            response.addHeader("Content-Disposition",
+                    "attachment; filename=\"" + fileName + "\"");
+            if (compression.encoding() != null) {
+                response.addHeader("Content-Encoding", compression.encoding());
+            }
+            channel.sendResponse(response);
+        } catch (final Throwable e) {
+            throw new ElasticsearchException("Failed to render the content.", e);
+        }
     }
 
     /**
@@ -132,24 +347,114 @@ public class RestDataAction extends BaseRestHandler {
         } else if ("application/list+json".equals(contentType)
                 || "jsonlist".equals(contentType)) {
             return ContentType.JSONLIST;
+        } else if ("application/x-ndjson".equals(contentType)
+                || "ndjson".equalsIgnoreCase(contentType)) {
+            return ContentType.NDJSON;
+        } else if ("application/vnd.apache.parquet".equals(contentType)
+                || "parquet".equalsIgnoreCase(contentType)) {
+            return ContentType.PARQUET;
+        } else if ("application/vnd.apache.arrow.stream".equals(contentType)
+                || "arrow".equalsIgnoreCase(contentType)) {
+            return ContentType.ARROW;
+        } else if ("application/avro".equals(contentType)
+                || "avro".equalsIgnoreCase(contentType)) {
+            return ContentType.AVRO;
         }
 
         return null;
     }
 
-    class SearchResponseListener implements ActionListener<SearchResponse> {
+    /**
+     * Create paginators for the request. Scroll is used by default and is
+     * split into sliced scrolls if {@code slices} is greater than 1. A point
+     * in time in the request body or {@code pagination=search_after} selects
+     * search_after instead.
+     *
+     * @param request
+     * @param searchRequest
+     * @param client
+     * @return paginators to be fetched concurrently
+     */
+    private List<Paginator> createPaginators(final RestRequest request,
+            final SearchRequest searchRequest, final NodeClient client) {
+        final int slices = request.paramAsInt("slices", 1);
+        final String pagination = request.param("pagination",
+                searchRequest.pointInTimeBuilder() != null ? PAGINATION_SEARCH_AFTER : PAGINATION_SCROLL);
+        if (PAGINATION_SEARCH_AFTER.equals(pagination)) {
+            // a unique field with doc values, since sorting by _id needs fielddata
+            final String tiebreaker = request.param("search_after.tiebreaker");
+            if (tiebreaker == null || tiebreaker.isEmpty()) {
+                throw new IllegalArgumentException("search_after.tiebreaker is required with pagination="
+                        + PAGINATION_SEARCH_AFTER);
+            }
+            if (slices > 1) {
+                throw new IllegalArgumentException("slices is not supported with pagination="
+                        + PAGINATION_SEARCH_AFTER);
+            }
+            if (searchRequest.scroll() != null) {
+                throw new IllegalArgumentException("scroll cannot be used with pagination="
+                        + PAGINATION_SEARCH_AFTER);
+            }
+            return Collections.singletonList(
+                    new SearchAfterPaginator(client, searchRequest, tiebreaker));
+        } else if (!PAGINATION_SCROLL.equals(pagination)) {
+            throw new IllegalArgumentException("Unknown pagination: " + pagination);
+        }
+
+        final TimeValue keepAlive = RequestUtil.getScroll(request);
+        if (slices <= 1) {
+            return Collections.singletonList(
+                    new ScrollPaginator(client, searchRequest, keepAlive));
+        }
+        if (searchRequest.scroll() == null) {
+            searchRequest.scroll(keepAlive);
+        }
+        final SearchSourceBuilder source = searchRequest.source();
+        if (source.sorts() == null || source.sorts().isEmpty()) {
+            source.sort(FieldSortBuilder.DOC_FIELD_NAME, SortOrder.ASC);
+        }
+        final List<Paginator> paginators = new ArrayList<>(slices);
+        for (int i = 0; i < slices; i++) {
+            final SearchRequest sliceRequest = new SearchRequest(searchRequest);
+            sliceRequest.source(source.shallowCopy().slice(new SliceBuilder(i, slices)));
+            paginators.add(new ScrollPaginator(client, sliceRequest, keepAlive));
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("slices: {}", slices);
+        }
+        return paginators;
+    }
+
+    class ContentListener implements ActionListener<ExportResponse> {
 
         private final RestChannel channel;
 
         private File outputFile;
 
+        private final boolean useLocalFile;
+
         private final DataContent dataContent;
 
         private final long limit;
 
-        SearchResponseListener(final RestChannel channel, final String file, final long limit,
-                               final DataContent dataContent) {
+        private final String tenant;
+
+        private Client client;
+
+        private SearchRequest searchRequest;
+
+        private List<Paginator> paginators;
+
+        private String requestKey;
+
+        private String cacheKey;
+
+        private String runningKey;
+
+        ContentListener(final RestChannel channel, final String file, final long limit,
+                        final DataContent dataContent, final String tenant) {
             this.channel = channel;
+            this.tenant = tenant;
             this.dataContent = dataContent;
             if (!Strings.isNullOrEmpty(file)) {
                 outputFile = new File(file);
@@ -159,54 +464,133 @@ public class RestDataAction extends BaseRestHandler {
                             + outputFile.getAbsolutePath());
                 }
             }
+            this.useLocalFile = outputFile != null;
             this.limit = limit;
         }
 
-        @Override
-        public void onResponse(final SearchResponse response) {
+        void execute(final Client client, final SearchRequest searchRequest,
+                final String requestKey, final List<Paginator> paginators) {
+            this.client = client;
+            this.searchRequest = searchRequest;
+            this.paginators = paginators;
+            if (requestKey == null) {
+                export();
+                return;
+            }
+            if (!cache.isEnabled() || !ExportCache.isCacheable(searchRequest)
+                    || !cache.shouldResolve(requestKey)) {
+                exportOrAttach(requestKey, null);
+                return;
+            }
+            cache.resolveKey(client, searchRequest, requestKey, ActionListener.wrap(key -> {
+                final ExportCache.Entry entry = cache.acquire(key);
+                if (entry != null) {
+                    try {
+                        writeResponse(Collections.singletonList(this), entry.getFile(),
+                                entry.getHeaderOffset());
+                    } finally {
+                        cache.release(entry);
+                    }
+                    return;
+                }
+                exportOrAttach(requestKey, key);
+            }, e -> {
+                logger.debug("Failed to resolve a cache key.", e);
+                exportOrAttach(requestKey, null);
+            }));
+        }
 
+        /**
+         * Start an export, or wait for a running export of the same request.
+         *
+         * @param requestKey
+         * @param key the cache key, or null not to cache the output
+         */
+        private void exportOrAttach(final String requestKey, final String key) {
+            // the limit aborts the export, so it must match
+            final String key2 = requestKey + '/' + limit;
+            synchronized (runningExports) {
+                final List<ContentListener> followers = runningExports.get(key2);
+                if (followers != null) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Attached to a running export: {}", key2);
+                    }
+                    followers.add(this);
+                    return;
+                }
+                runningExports.put(key2, new ArrayList<>());
+            }
+            this.requestKey = requestKey;
+            runningKey = key2;
+            cacheKey = key;
+            export();
+        }
+
+        private List<ContentListener> takeFollowers() {
+            if (runningKey == null) {
+                return Collections.emptyList();
+            }
+            synchronized (runningExports) {
+                final List<ContentListener> followers = runningExports.remove(runningKey);
+                runningKey = null;
+                return followers;
+            }
+        }
+
+        private void export() {
             try {
-                final boolean useLocalFile = outputFile != null;
                 if (outputFile == null) {
-                    outputFile = File.createTempFile("es_df_output_", ".dat");
+                    outputFile = spill.createFile("output_", ".dat");
                 }
                 if (logger.isDebugEnabled()) {
                     logger.debug("outputFile: {}", outputFile.getAbsolutePath());
                 }
-                dataContent.write(outputFile, response, channel,
-                        new ActionListener<Void>() {
-
-                            @Override
-                            public void onResponse(final Void response) {
-                                try {
-                                    if (useLocalFile) {
-                                        // from java 8: the local variables passed to anonymous class
-                                        // could also be "effectively final", which means their values
-                                        // are never changed after initialization.
-                                        // it's more about to encourage the use of lambda expression
-                                        // instead of creating anonymous class
-                                        sendResponse(dataContent.getRequest(), channel,
-                                                outputFile.getAbsolutePath());
-                                    } else {
-                                        writeResponse(dataContent.getRequest(), channel, outputFile, limit, dataContent);
-                                        SearchResponseListener.this
-                                                .deleteOutputFile();
-                                    }
-                                } catch (final Exception e) {
-                                    onFailure(e);
-                                }
-                            }
-
-                            @Override
-                            public void onFailure(final Exception e) {
-                                SearchResponseListener.this.onFailure(e);
-                            }
-                        });
+                // cancelled when the http channel is closed
+                client.execute(ExportAction.INSTANCE,
+                        new ExportRequest(dataContent, paginators, outputFile)
+                                .indices(searchRequest.indices(), searchRequest.indicesOptions())
+                                .maxBytes(useLocalFile ? -1 : limit)
+                                .tenant(tenant)
+                                .spliceHeader(!useLocalFile),
+                        this);
             } catch (final IOException e) {
                 onFailure(e);
             }
         }
 
+        @Override
+        public void onResponse(final ExportResponse response) {
+            try {
+                if (useLocalFile) {
+                    sendResponse(dataContent.getRequest(), channel,
+                            outputFile.getAbsolutePath());
+                } else {
+                    final List<ContentListener> followers = takeFollowers();
+                    final ExportCache.Entry entry = cacheKey == null ? null
+                            : cache.put(cacheKey, requestKey, outputFile, response.getHeaderOffset());
+                    if (entry != null) {
+                        // moved into the cache
+                        outputFile = null;
+                    }
+                    final File file = entry != null ? entry.getFile() : outputFile;
+                    final List<ContentListener> listeners = new ArrayList<>(followers.size() + 1);
+                    listeners.add(this);
+                    listeners.addAll(followers);
+                    try {
+                        writeResponse(listeners, file, response.getHeaderOffset());
+                    } finally {
+                        if (entry != null) {
+                            cache.release(entry);
+                        } else {
+                            deleteOutputFile();
+                        }
+                    }
+                }
+            } catch (final Exception e) {
+                onFailure(e);
+            }
+        }
+
         private void deleteOutputFile() {
             if (outputFile != null && !outputFile.delete()) {
                 logger.warn("Failed to delete: {}", outputFile.getAbsolutePath());
@@ -216,9 +600,51 @@ public class RestDataAction extends BaseRestHandler {
         @Override
         public void onFailure(final Exception e) {
             deleteOutputFile();
+            if (ExceptionsHelper.unwrap(e, TaskCancelledException.class) != null) {
+                // the client of this request went away, not theirs
+                final ContentListener leader = handOver();
+                if (leader != null) {
+                    leader.export();
+                }
+            } else {
+                for (final ContentListener follower : takeFollowers()) {
+                    follower.sendFailure(e);
+                }
+            }
+            sendFailure(e);
+        }
+
+        /**
+         * Make the first follower run the export for the others.
+         *
+         * @return the new leader, or null if there are no followers
+         */
+        private ContentListener handOver() {
+            if (runningKey == null) {
+                return null;
+            }
+            synchronized (runningExports) {
+                final List<ContentListener> followers = runningExports.get(runningKey);
+                final ContentListener leader;
+                if (followers.isEmpty()) {
+                    runningExports.remove(runningKey);
+                    leader = null;
+                } else {
+                    // the others stay attached to the same key
+                    leader = followers.remove(0);
+                    leader.requestKey = requestKey;
+                    leader.runningKey = runningKey;
+                    leader.cacheKey = cacheKey;
+                }
+                runningKey = null;
+                return leader;
+            }
+        }
+
+        private void sendFailure(final Exception e) {
             try {
-                channel.sendResponse(new BytesRestResponse(channel,
-                        RestStatus.INTERNAL_SERVER_ERROR, e));
+                // 429 if the export executor rejected it
+                channel.sendResponse(new BytesRestResponse(channel, e));
             } catch (final IOException e1) {
                 logger.error("Failed to send failure response", e1);
             }
@@ -241,31 +667,35 @@ public class RestDataAction extends BaseRestHandler {
             }
         }
 
-        private void writeResponse(final RestRequest request, final RestChannel channel, final File outputFile,
-                                   final long limit, final DataContent dataContent) {
-            if (outputFile.length() > limit) {
-                onFailure(new ElasticsearchException("Content size is too large " + outputFile.length()));
+        /**
+         * Send an output file to listeners with the same limit. The file is
+         * read once and the same bytes are sent to every channel.
+         *
+         * @param listeners
+         * @param outputFile
+         * @param headerOffset
+         */
+        private void writeResponse(final List<ContentListener> listeners, final File outputFile,
+                final long headerOffset) {
+            final BytesReference bytes;
+            try {
+                if (outputFile.length() > limit) {
+                    throw new ElasticsearchException("Content size is too large " + outputFile.length());
+                }
+                bytes = readFile(outputFile, headerOffset);
+            } catch (final Exception e) {
+                for (final ContentListener l : listeners) {
+                    l.sendFailure(e);
+                }
                 return;
             }
-
-            try (FileInputStream fis = new FileInputStream(outputFile)) {
-                final ByteArrayOutputStream out = new ByteArrayOutputStream();
-                final byte[] bytes = new byte[1024];
-                int len;
-                while ((len = fis.read(bytes)) > 0) {
-                    out.write(bytes, 0, len);
+            for (final ContentListener l : listeners) {
+                try {
+                    sendBytes(l.channel, bytes, l.dataContent.getContentType(), l.dataContent.getCompression(),
+                            l.dataContent.getContentType().fileName(l.dataContent.getRequest()));
+                } catch (final Exception e) {
+                    l.sendFailure(e);
                 }
-
-                final ContentType contentType = dataContent.getContentType();
-                final BytesRestResponse response = new BytesRestResponse(
-                        RestStatus.OK, contentType.contentType(),
-                        out.toByteArray());
-                response.addHeader("Content-Disposition",
-                        "attachment; filename=\""
-                                + contentType.fileName(request) + "\"");
-                channel.sendResponse(response);
-            } catch (final Throwable e) {
-                throw new ElasticsearchException("Failed to render the content.", e);
             }
         }
     }
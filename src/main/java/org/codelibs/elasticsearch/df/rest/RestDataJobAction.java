@@ -0,0 +1,77 @@
+package org.codelibs.elasticsearch.df.rest;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.codelibs.elasticsearch.df.service.ExportJob;
+import org.codelibs.elasticsearch.df.service.ExportJobService;
+import org.codelibs.elasticsearch.df.util.RequestUtil;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.ResourceNotFoundException;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Status and download of exports started with {@code wait_for_completion=false}.
+ */
+public class RestDataJobAction extends BaseRestHandler {
+
+    private final long maxMemory;
+    private final long defaultLimit;
+    private final ExportJobService jobService;
+
+    public RestDataJobAction(final long defaultLimit, final ExportJobService jobService) {
+        this.maxMemory = Runtime.getRuntime().maxMemory();
+        this.defaultLimit = defaultLimit;
+        this.jobService = jobService;
+    }
+
+    @Override
+    public List<Route> routes() {
+        return unmodifiableList(asList(
+                new Route(GET, "/_data/_jobs/{id}"),
+                new Route(GET, "/_data/_jobs/{id}/download")));
+    }
+
+    @Override
+    public RestChannelConsumer prepareRequest(final RestRequest request,
+            final NodeClient client) throws IOException {
+        final String id = request.param("id");
+        final boolean download = request.path().endsWith("/download");
+        final long limit = download ? RestDataAction.getLimit(request, maxMemory, defaultLimit) : 0;
+        final ExportJob job = jobService.getJob(id);
+        // a job of another caller is not revealed
+        if (job == null || !job.isOwnedBy(RequestUtil.getIdentity(request, client.threadPool().getThreadContext()))) {
+            throw new ResourceNotFoundException("export job [" + id + "] is not found");
+        }
+        if (!download) {
+            return channel -> channel.sendResponse(new BytesRestResponse(RestStatus.OK,
+                    job.toXContent(channel.newBuilder(), request)));
+        }
+        if (!job.isCompleted()) {
+            throw new ElasticsearchStatusException("export job [" + id + "] is still running",
+                    RestStatus.CONFLICT);
+        }
+        if (job.getFailure() != null) {
+            throw new ElasticsearchException("export job [" + id + "] failed", job.getFailure());
+        }
+        if (job.getOutputFile().length() > limit) {
+            throw new ElasticsearchException("Content size is too large " + job.getOutputFile().length());
+        }
+        return channel -> RestDataAction.sendFile(channel, job.getOutputFile(), job.getHeaderOffset(),
+                job.getContentType(), job.getCompression(), job.getFileName());
+    }
+
+    @Override
+    public String getName() {
+        return "data_job_action";
+    }
+}
@@ -0,0 +1,60 @@
+package org.codelibs.elasticsearch.df.rest;
+
+import static java.util.Collections.singletonList;
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.codelibs.elasticsearch.df.service.ExportCache;
+import org.codelibs.elasticsearch.df.service.ExportScheduler;
+import org.codelibs.elasticsearch.df.service.SpillDirectory;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Export scheduler, cache and spill directory statistics of the local node.
+ */
+public class RestDataStatsAction extends BaseRestHandler {
+
+    private final ExportScheduler scheduler;
+
+    private final ExportCache cache;
+
+    private final SpillDirectory spill;
+
+    public RestDataStatsAction(final ExportScheduler scheduler, final ExportCache cache,
+            final SpillDirectory spill) {
+        this.scheduler = scheduler;
+        this.cache = cache;
+        this.spill = spill;
+    }
+
+    @Override
+    public List<Route> routes() {
+        return singletonList(new Route(GET, "/_data/_stats"));
+    }
+
+    @Override
+    public RestChannelConsumer prepareRequest(final RestRequest request,
+            final NodeClient client) throws IOException {
+        return channel -> {
+            final XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.field("scheduler", scheduler);
+            builder.field("cache", cache);
+            builder.field("spill", spill);
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+        };
+    }
+
+    @Override
+    public String getName() {
+        return "data_stats_action";
+    }
+}
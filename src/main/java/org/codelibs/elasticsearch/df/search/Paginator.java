@@ -0,0 +1,48 @@
+package org.codelibs.elasticsearch.df.search;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.tasks.TaskId;
+
+/**
+ * Pagination strategy of an export. Content writers only see the pages, so
+ * they do not depend on the backend (scroll or search_after) in use.
+ */
+public interface Paginator {
+
+    /**
+     * Run search requests as children of the given task, so that they are
+     * cancelled with it.
+     *
+     * @param parentTask
+     */
+    void setParentTask(TaskId parentTask);
+
+    /**
+     * Send the search request for the first page.
+     *
+     * @param listener
+     */
+    void start(ActionListener<SearchResponse> listener);
+
+    /**
+     * Fetch the page following the given one.
+     *
+     * @param response the current page
+     * @param listener
+     */
+    void next(SearchResponse response, ActionListener<SearchResponse> listener);
+
+    /**
+     * Check if no page follows the given one.
+     *
+     * @param response
+     * @return true if it is the last page
+     */
+    boolean isLastPage(SearchResponse response);
+
+    /**
+     * Release search contexts held by this paginator.
+     */
+    void close();
+}
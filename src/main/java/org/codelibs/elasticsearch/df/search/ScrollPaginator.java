@@ -0,0 +1,88 @@
+package org.codelibs.elasticsearch.df.search;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.tasks.TaskId;
+
+/**
+ * Paginates with a scroll cursor. Without a scroll keepalive on the search
+ * request, only the first page is returned.
+ */
+public class ScrollPaginator implements Paginator {
+    private static final Logger logger = LogManager.getLogger(ScrollPaginator.class);
+
+    private final Client client;
+
+    private final SearchRequest searchRequest;
+
+    private final TimeValue keepAlive;
+
+    private TaskId parentTask = TaskId.EMPTY_TASK_ID;
+
+    private volatile String scrollId;
+
+    private volatile boolean closed = false;
+
+    public ScrollPaginator(final Client client, final SearchRequest searchRequest, final TimeValue keepAlive) {
+        this.client = client;
+        this.searchRequest = searchRequest;
+        this.keepAlive = keepAlive;
+    }
+
+    @Override
+    public void setParentTask(final TaskId parentTask) {
+        this.parentTask = parentTask;
+        searchRequest.setParentTask(parentTask);
+    }
+
+    @Override
+    public void start(final ActionListener<SearchResponse> listener) {
+        client.search(searchRequest, ActionListener.map(listener, this::update));
+    }
+
+    @Override
+    public void next(final SearchResponse response, final ActionListener<SearchResponse> listener) {
+        final SearchScrollRequest scrollRequest = new SearchScrollRequest(response.getScrollId()).scroll(keepAlive);
+        scrollRequest.setParentTask(parentTask);
+        client.searchScroll(scrollRequest, ActionListener.map(listener, this::update));
+    }
+
+    @Override
+    public boolean isLastPage(final SearchResponse response) {
+        return response.getHits().getHits().length == 0 || response.getScrollId() == null;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        clearScroll();
+    }
+
+    private synchronized void clearScroll() {
+        final String id = scrollId;
+        if (id == null) {
+            return;
+        }
+        scrollId = null;
+        client.prepareClearScroll().addScrollId(id).execute(ActionListener.wrap(res -> {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Cleared scroll: {}", id);
+            }
+        }, e -> logger.warn("Failed to clear scroll: " + id, e)));
+    }
+
+    private SearchResponse update(final SearchResponse response) {
+        scrollId = response.getScrollId();
+        if (closed) {
+            // a page was in flight when the export ended
+            clearScroll();
+        }
+        return response;
+    }
+}
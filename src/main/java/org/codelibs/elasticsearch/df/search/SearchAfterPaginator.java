@@ -0,0 +1,110 @@
+package org.codelibs.elasticsearch.df.search;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchService;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.elasticsearch.tasks.TaskId;
+
+/**
+ * Paginates with search_after, optionally inside a point in time given in
+ * the request body. No scroll context is kept open on the shards between
+ * pages.
+ *
+ * The sort of the request is completed by a unique tiebreaker field, because
+ * {@code _doc} is only unique within a shard. Without a point in time,
+ * {@code _doc} is not stable between requests, so the default sort is the
+ * tiebreaker alone and a {@code _doc} sort is rejected.
+ */
+public class SearchAfterPaginator implements Paginator {
+
+    private final Client client;
+
+    private final SearchRequest searchRequest;
+
+    private final int size;
+
+    private volatile String pointInTimeId;
+
+    public SearchAfterPaginator(final Client client, final SearchRequest searchRequest, final String tiebreaker) {
+        this.client = client;
+        this.searchRequest = searchRequest;
+        final SearchSourceBuilder source = searchRequest.source();
+        final PointInTimeBuilder pointInTimeBuilder = source.pointInTimeBuilder();
+        this.pointInTimeId = pointInTimeBuilder == null ? null : pointInTimeBuilder.getId();
+        if (source.sorts() == null || source.sorts().isEmpty()) {
+            if (pointInTimeId != null) {
+                source.sort(FieldSortBuilder.DOC_FIELD_NAME, SortOrder.ASC);
+            }
+        } else if (pointInTimeId == null && hasSort(source, FieldSortBuilder.DOC_FIELD_NAME)) {
+            throw new IllegalArgumentException("Sorting by " + FieldSortBuilder.DOC_FIELD_NAME
+                    + " requires a point in time with search_after");
+        }
+        if (!hasSort(source, tiebreaker)) {
+            source.sort(tiebreaker, SortOrder.ASC);
+        }
+        this.size = source.size() < 0 ? SearchService.DEFAULT_SIZE : source.size();
+    }
+
+    private static boolean hasSort(final SearchSourceBuilder source, final String field) {
+        if (source.sorts() == null) {
+            return false;
+        }
+        for (final SortBuilder<?> sort : source.sorts()) {
+            if (sort instanceof FieldSortBuilder && field.equals(((FieldSortBuilder) sort).getFieldName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void setParentTask(final TaskId parentTask) {
+        searchRequest.setParentTask(parentTask);
+    }
+
+    @Override
+    public void start(final ActionListener<SearchResponse> listener) {
+        client.search(searchRequest, ActionListener.map(listener, this::update));
+    }
+
+    @Override
+    public void next(final SearchResponse response, final ActionListener<SearchResponse> listener) {
+        final SearchHit[] hits = response.getHits().getHits();
+        final SearchSourceBuilder source = searchRequest.source().shallowCopy()
+                .from(0)
+                .trackTotalHits(false)
+                .searchAfter(hits[hits.length - 1].getSortValues());
+        final String id = pointInTimeId;
+        if (id != null) {
+            source.pointInTimeBuilder(new PointInTimeBuilder(id)
+                    .setKeepAlive(searchRequest.source().pointInTimeBuilder().getKeepAlive()));
+        }
+        final SearchRequest nextRequest = new SearchRequest(searchRequest).source(source);
+        client.search(nextRequest, ActionListener.map(listener, this::update));
+    }
+
+    @Override
+    public boolean isLastPage(final SearchResponse response) {
+        return response.getHits().getHits().length < Math.max(size, 1);
+    }
+
+    @Override
+    public void close() {
+        // the point in time is owned by the caller who opened it
+    }
+
+    private SearchResponse update(final SearchResponse response) {
+        if (response.pointInTimeId() != null) {
+            pointInTimeId = response.pointInTimeId();
+        }
+        return response;
+    }
+}
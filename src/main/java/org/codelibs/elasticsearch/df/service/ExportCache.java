@@ -0,0 +1,462 @@
+package org.codelibs.elasticsearch.df.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.df.content.DataContent;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsRequest;
+import org.elasticsearch.action.admin.indices.stats.ShardStats;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.hash.MessageDigests;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.index.refresh.RefreshStats;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Node-local cache of finished downloads, evicted in LRU order when the
+ * files exceed {@code dataformat.cache.size}. It is disabled by default.
+ *
+ * The key covers the caller, the search request, the output parameters
+ * and, for every shard copy, the allocation, the max sequence number and
+ * the number of refreshes of its searcher. A refresh only happens when
+ * there are changes or on request, so every visible change makes a new
+ * key. Entries also expire after {@code dataformat.cache.expire}.
+ *
+ * Like the shard request cache, requests which depend on the time or on
+ * chance ({@code now}, scripts and random scores) are not cached.
+ *
+ * The state of the indices is only resolved for a request which was seen
+ * before, so a download requested once costs no stats call and is not
+ * cached.
+ */
+public class ExportCache implements Closeable, ToXContentObject {
+    private static final Logger logger = LogManager.getLogger(ExportCache.class);
+
+    public static final Setting<ByteSizeValue> SIZE_SETTING = Setting.byteSizeSetting("dataformat.cache.size",
+            new ByteSizeValue(0), Property.NodeScope);
+
+    public static final Setting<TimeValue> EXPIRE_SETTING = Setting.timeSetting("dataformat.cache.expire",
+            TimeValue.timeValueHours(1), TimeValue.timeValueSeconds(1), Property.NodeScope);
+
+    // query keys which make a request uncacheable
+    private static final Set<String> UNCACHEABLE_KEYS = new HashSet<>(Arrays.asList("script", "script_score",
+            "script_fields", "random_score", "scripted_metric"));
+
+    private static final Pattern NOW_PATTERN = Pattern.compile("(^|[^\\w.])now([^\\w.]|$)");
+
+    // parameters which do not change the output
+    private static final Set<String> IGNORED_PARAMS = new HashSet<>(Arrays.asList("pretty", "limit", "prefetch",
+            "scroll", "wait_for_completion", "cache", "compress.threads", "source", "source_content_type",
+            "error_trace", "filter_path", "human"));
+
+    private static final int MAX_SEEN_REQUESTS = 1000;
+
+    private final long maxSize;
+
+    private final long expire;
+
+    private final Path directory;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // entry counts by request key
+    private final Map<String, Integer> requestKeys = new HashMap<>();
+
+    // request keys without entries, in LRU order
+    private final Map<String, Boolean> seenRequests = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_SEEN_REQUESTS;
+        }
+    };
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private long size = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private long evictions = 0;
+
+    public ExportCache(final Settings settings, final Path directory) {
+        this.maxSize = SIZE_SETTING.get(settings).getBytes();
+        this.expire = EXPIRE_SETTING.get(settings).nanos();
+        this.directory = directory;
+        if (isEnabled()) {
+            try {
+                // entries do not survive a restart
+                clearDirectory();
+                Files.createDirectories(directory);
+            } catch (final IOException e) {
+                throw new ElasticsearchException("Failed to create " + directory, e);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Create the part of a key which depends on the request only.
+     *
+     * @param request
+     * @param identity the identity of the caller, since the output depends
+     *            on its privileges
+     * @param searchRequest
+     * @param dataContent
+     * @return the request key
+     */
+    public static String createRequestKey(final RestRequest request, final String identity,
+            final SearchRequest searchRequest, final DataContent dataContent) {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(identity).append('\n');
+        buf.append(dataContent.getContentType().name()).append('\n');
+        buf.append(dataContent.getCompression().name()).append('\n');
+        buf.append(Arrays.toString(searchRequest.indices())).append('\n');
+        buf.append(searchRequest.indicesOptions()).append('\n');
+        buf.append(searchRequest.routing()).append('\n');
+        buf.append(searchRequest.source()).append('\n');
+        final Map<String, String> params = new TreeMap<>(request.params());
+        params.keySet().removeAll(IGNORED_PARAMS);
+        buf.append(params);
+        return MessageDigests.toHexString(
+                MessageDigests.sha256().digest(buf.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Check if the output of a search only depends on the data, as the
+     * shard request cache does: date math with {@code now}, scripts and
+     * random scores make it uncacheable.
+     *
+     * @param searchRequest
+     * @return true if the output may be cached
+     */
+    public static boolean isCacheable(final SearchRequest searchRequest) {
+        if (searchRequest.source() == null) {
+            return true;
+        }
+        final Map<String, Object> source = XContentHelper.convertToMap(JsonXContent.jsonXContent,
+                Strings.toString(searchRequest.source()), false);
+        return isCacheable(source);
+    }
+
+    private static boolean isCacheable(final Object value) {
+        if (value instanceof Map) {
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (UNCACHEABLE_KEYS.contains(entry.getKey()) || !isCacheable(entry.getValue())) {
+                    return false;
+                }
+            }
+        } else if (value instanceof List) {
+            for (final Object item : (List<?>) value) {
+                if (!isCacheable(item)) {
+                    return false;
+                }
+            }
+        } else if (value instanceof String) {
+            return !NOW_PATTERN.matcher((String) value).find();
+        }
+        return true;
+    }
+
+    /**
+     * Check if the state of the indices should be resolved for a request,
+     * which is the case if it has cached entries or was seen before. A
+     * request which is not resolved counts as a miss.
+     *
+     * @param requestKey the key created by {@link #createRequestKey}
+     * @return true if {@link #resolveKey} should be called
+     */
+    public synchronized boolean shouldResolve(final String requestKey) {
+        if (requestKeys.containsKey(requestKey) || seenRequests.remove(requestKey) != null) {
+            return true;
+        }
+        seenRequests.put(requestKey, Boolean.TRUE);
+        misses++;
+        return false;
+    }
+
+    /**
+     * Complete the request key with the state of the target indices.
+     *
+     * @param client
+     * @param searchRequest
+     * @param requestKey the key created by {@link #createRequestKey}
+     * @param listener receives the cache key
+     */
+    public void resolveKey(final Client client, final SearchRequest searchRequest, final String requestKey,
+            final ActionListener<String> listener) {
+        final IndicesStatsRequest statsRequest = new IndicesStatsRequest();
+        statsRequest.indices(searchRequest.indices());
+        statsRequest.indicesOptions(searchRequest.indicesOptions());
+        statsRequest.clear().refresh(true);
+        client.admin().indices().stats(statsRequest, ActionListener.map(listener, response -> {
+            // a search may hit any copy of a shard
+            final List<String> states = new ArrayList<>();
+            for (final ShardStats shard : response.getShards()) {
+                final ShardRouting routing = shard.getShardRouting();
+                final RefreshStats refresh = shard.getStats().getRefresh();
+                states.add(routing.shardId().getIndex().getUUID() + ':' + routing.id() + ':'
+                        + (routing.allocationId() == null ? null : routing.allocationId().getId()) + ':'
+                        + (shard.getSeqNoStats() == null ? -1 : shard.getSeqNoStats().getMaxSeqNo()) + ':'
+                        + (refresh == null ? -1 : refresh.getExternalTotal()));
+            }
+            Collections.sort(states);
+            final MessageDigest digest = MessageDigests.sha256();
+            digest.update(requestKey.getBytes(StandardCharsets.UTF_8));
+            for (final String state : states) {
+                digest.update(state.getBytes(StandardCharsets.UTF_8));
+            }
+            return MessageDigests.toHexString(digest.digest());
+        }));
+    }
+
+    /**
+     * Get a cached file. The entry must be released after use.
+     *
+     * @param key
+     * @return the entry, or null if not cached
+     */
+    public Entry acquire(final String key) {
+        final Entry entry;
+        final List<Entry> removed = new ArrayList<>();
+        synchronized (this) {
+            removeExpired(removed);
+            entry = entries.get(key);
+            if (entry == null) {
+                misses++;
+            } else {
+                hits++;
+                entry.refs++;
+            }
+        }
+        for (final Entry e : removed) {
+            e.delete();
+        }
+        return entry;
+    }
+
+    private void removeExpired(final List<Entry> removed) {
+        final long now = System.nanoTime();
+        for (final Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            final Entry entry = it.next();
+            if (now - entry.createdTime >= expire) {
+                it.remove();
+                addRequestKey(entry.requestKey, -1);
+                size -= entry.length;
+                evictions++;
+                entry.evicted = true;
+                if (entry.refs == 0) {
+                    removed.add(entry);
+                }
+            }
+        }
+    }
+
+    public void release(final Entry entry) {
+        final boolean delete;
+        synchronized (this) {
+            entry.refs--;
+            delete = entry.evicted && entry.refs == 0;
+        }
+        if (delete) {
+            entry.delete();
+        }
+    }
+
+    /**
+     * Move a finished output file into the cache. The returned entry must
+     * be released after use.
+     *
+     * @param key
+     * @param outputFile the output, moved into the cache directory
+     * @param headerOffset the header offset of the output
+     * @return the entry, or null if the file is not cached
+     */
+    public Entry put(final String key, final String requestKey, final File outputFile, final long headerOffset) {
+        final long length = outputFile.length();
+        if (length > maxSize) {
+            return null;
+        }
+        // unique, since a concurrent export may put the same key
+        final Path path = directory.resolve(key + '.' + sequence.incrementAndGet());
+        try {
+            Files.move(outputFile.toPath(), path);
+        } catch (final IOException e) {
+            logger.warn("Failed to cache " + outputFile.getAbsolutePath(), e);
+            return null;
+        }
+        final Entry entry = new Entry(key, requestKey, path.toFile(), length, headerOffset);
+        final List<Entry> removed = new ArrayList<>();
+        synchronized (this) {
+            final Entry old = entries.put(key, entry);
+            addRequestKey(requestKey, 1);
+            if (old != null) {
+                // a concurrent export of the same key
+                addRequestKey(old.requestKey, -1);
+                size -= old.length;
+                old.evicted = true;
+                if (old.refs == 0) {
+                    removed.add(old);
+                }
+            }
+            size += length;
+            for (final Iterator<Entry> it = entries.values().iterator(); size > maxSize && it.hasNext();) {
+                final Entry eldest = it.next();
+                it.remove();
+                addRequestKey(eldest.requestKey, -1);
+                size -= eldest.length;
+                evictions++;
+                eldest.evicted = true;
+                if (eldest.refs == 0) {
+                    removed.add(eldest);
+                }
+            }
+            if (!entry.evicted) {
+                entry.refs++;
+            }
+        }
+        for (final Entry e : removed) {
+            e.delete();
+        }
+        return entry.evicted ? null : entry;
+    }
+
+    private void addRequestKey(final String requestKey, final int delta) {
+        final int count = requestKeys.getOrDefault(requestKey, 0) + delta;
+        if (count > 0) {
+            requestKeys.put(requestKey, count);
+        } else {
+            requestKeys.remove(requestKey);
+        }
+    }
+
+    @Override
+    public synchronized XContentBuilder toXContent(final XContentBuilder builder, final Params params)
+            throws IOException {
+        builder.startObject();
+        builder.field("enabled", isEnabled());
+        builder.field("size_in_bytes", size);
+        builder.field("max_size_in_bytes", maxSize);
+        builder.field("count", entries.size());
+        builder.field("hits", hits);
+        builder.field("misses", misses);
+        builder.field("evictions", evictions);
+        return builder.endObject();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            entries.clear();
+            requestKeys.clear();
+            seenRequests.clear();
+            size = 0;
+        }
+        if (isEnabled()) {
+            try {
+                clearDirectory();
+            } catch (final IOException e) {
+                logger.warn("Failed to clear " + directory, e);
+            }
+        }
+    }
+
+    private void clearDirectory() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (final IOException e) {
+                    logger.warn("Failed to delete " + file, e);
+                }
+            });
+        }
+    }
+
+    public static class Entry {
+        private final String key;
+
+        private final String requestKey;
+
+        private final File file;
+
+        private final long length;
+
+        private final long headerOffset;
+
+        private final long createdTime = System.nanoTime();
+
+        private int refs = 0;
+
+        private boolean evicted = false;
+
+        Entry(final String key, final String requestKey, final File file, final long length,
+                final long headerOffset) {
+            this.key = key;
+            this.requestKey = requestKey;
+            this.file = file;
+            this.length = length;
+            this.headerOffset = headerOffset;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getHeaderOffset() {
+            return headerOffset;
+        }
+
+        private void delete() {
+            if (file.exists() && !file.delete()) {
+                logger.warn("Failed to delete: {}", file.getAbsolutePath());
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Evicted cache entry: {}", key);
+            }
+        }
+    }
+}
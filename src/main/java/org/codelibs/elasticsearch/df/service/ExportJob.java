@@ -0,0 +1,165 @@
+package org.codelibs.elasticsearch.df.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import org.codelibs.elasticsearch.df.action.ExportResponse;
+import org.codelibs.elasticsearch.df.action.ExportTask;
+import org.codelibs.elasticsearch.df.content.Compression;
+import org.codelibs.elasticsearch.df.content.ContentType;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Export running in the background. It keeps the output file and the final
+ * status after the task has completed.
+ */
+public class ExportJob implements ActionListener<ExportResponse>, ToXContentObject {
+
+    private volatile String id;
+
+    private volatile ExportTask task;
+
+    private final ContentType contentType;
+
+    private final Compression compression;
+
+    private final String fileName;
+
+    private final File outputFile;
+
+    private final boolean temporaryFile;
+
+    private final String owner;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile boolean completed = false;
+
+    private volatile long endTime;
+
+    private volatile ExportResponse response;
+
+    private volatile Exception failure;
+
+    ExportJob(final ContentType contentType, final Compression compression, final String fileName,
+            final File outputFile, final boolean temporaryFile, final String owner) {
+        this.contentType = contentType;
+        this.compression = compression;
+        this.fileName = fileName;
+        this.outputFile = outputFile;
+        this.temporaryFile = temporaryFile;
+        this.owner = owner;
+    }
+
+    void setTask(final String id, final ExportTask task) {
+        this.id = id;
+        this.task = task;
+    }
+
+    @Override
+    public void onResponse(final ExportResponse response) {
+        this.response = response;
+        complete();
+    }
+
+    @Override
+    public void onFailure(final Exception e) {
+        this.failure = e;
+        complete();
+    }
+
+    private void complete() {
+        endTime = System.currentTimeMillis();
+        completed = true;
+        if (failure != null) {
+            deleteOutputFile();
+        }
+    }
+
+    void deleteOutputFile() {
+        if (temporaryFile && outputFile.exists() && !outputFile.delete()) {
+            ExportJobService.logger.warn("Failed to delete: {}", outputFile.getAbsolutePath());
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Check if the job was submitted by the given caller.
+     *
+     * @param identity the identity of the caller
+     * @return true if the caller owns this job
+     */
+    public boolean isOwnedBy(final String identity) {
+        return owner.equals(identity);
+    }
+
+    public ContentType getContentType() {
+        return contentType;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * @return the position of a header appended after the body, or -1
+     */
+    public long getHeaderOffset() {
+        final ExportResponse r = response;
+        return r == null ? -1 : r.getHeaderOffset();
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public Exception getFailure() {
+        return failure;
+    }
+
+    long getEndTime() {
+        return endTime;
+    }
+
+    @Override
+    public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+        builder.startObject();
+        builder.field("id", id);
+        builder.field("format", contentType.name().toLowerCase(Locale.ROOT));
+        if (compression.encoding() != null) {
+            builder.field("compress", compression.name().toLowerCase(Locale.ROOT));
+        }
+        builder.field("completed", completed);
+        builder.field("start_time_in_millis", startTime);
+        if (completed) {
+            builder.field("running_time_in_millis", endTime - startTime);
+            if (failure != null) {
+                builder.field("error", failure.getMessage());
+            } else {
+                builder.field("rows", response.getRows());
+                builder.field("bytes", response.getBytes());
+            }
+        } else {
+            builder.field("running_time_in_millis", System.currentTimeMillis() - startTime);
+            task.getStatus().innerToXContent(builder);
+        }
+        if (!temporaryFile) {
+            builder.field("file", outputFile.getAbsolutePath());
+        }
+        return builder.endObject();
+    }
+}
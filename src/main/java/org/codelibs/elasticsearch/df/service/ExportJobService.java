@@ -0,0 +1,96 @@
+package org.codelibs.elasticsearch.df.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.df.action.ExportAction;
+import org.codelibs.elasticsearch.df.action.ExportRequest;
+import org.codelibs.elasticsearch.df.action.ExportTask;
+import org.codelibs.elasticsearch.df.content.ContentType;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.tasks.TaskId;
+import org.elasticsearch.threadpool.Scheduler.Cancellable;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Registry of exports started with {@code wait_for_completion=false}.
+ * Completed jobs and their files are kept for {@code dataformat.job.keep_alive}.
+ */
+public class ExportJobService implements Closeable {
+    static final Logger logger = LogManager.getLogger(ExportJobService.class);
+
+    public static final Setting<TimeValue> KEEP_ALIVE_SETTING = Setting.timeSetting("dataformat.job.keep_alive",
+            TimeValue.timeValueHours(1), TimeValue.timeValueSeconds(1), Property.NodeScope);
+
+    private static final TimeValue CLEANUP_INTERVAL = TimeValue.timeValueMinutes(1);
+
+    private final Map<String, ExportJob> jobs = ConcurrentCollections.newConcurrentMap();
+
+    private final long keepAlive;
+
+    private final Cancellable cleanupTask;
+
+    public ExportJobService(final Settings settings, final ThreadPool threadPool) {
+        this.keepAlive = KEEP_ALIVE_SETTING.get(settings).millis();
+        this.cleanupTask = threadPool.scheduleWithFixedDelay(this::removeExpiredJobs, CLEANUP_INTERVAL,
+                ThreadPool.Names.GENERIC);
+    }
+
+    public ExportJob submit(final NodeClient client, final ExportRequest request, final String fileName,
+            final boolean temporaryFile, final String owner) {
+        final ContentType contentType = request.getDataContent().getContentType();
+        final File outputFile = request.getOutputFile();
+        final ExportJob job = new ExportJob(contentType,
+                request.getDataContent().getCompression(), fileName, outputFile, temporaryFile, owner);
+        final ExportTask task = (ExportTask) client.executeLocally(ExportAction.INSTANCE, request, job);
+        final String id = new TaskId(client.getLocalNodeId(), task.getId()).toString();
+        job.setTask(id, task);
+        if (job.getFailure() instanceof EsRejectedExecutionException) {
+            throw (EsRejectedExecutionException) job.getFailure();
+        }
+        jobs.put(id, job);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Submitted export job: {}", id);
+        }
+        return job;
+    }
+
+    public ExportJob getJob(final String id) {
+        return jobs.get(id);
+    }
+
+    void removeExpiredJobs() {
+        final long now = System.currentTimeMillis();
+        for (final Iterator<ExportJob> it = jobs.values().iterator(); it.hasNext();) {
+            final ExportJob job = it.next();
+            if (job.isCompleted() && now - job.getEndTime() > keepAlive) {
+                it.remove();
+                job.deleteOutputFile();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Removed expired export job: {}", job.getId());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        cleanupTask.cancel();
+        for (final ExportJob job : jobs.values()) {
+            if (job.isCompleted()) {
+                job.deleteOutputFile();
+            }
+        }
+        jobs.clear();
+    }
+}
@@ -0,0 +1,232 @@
+package org.codelibs.elasticsearch.df.service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.df.action.ExportTask;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.tasks.TaskCancelledException;
+
+/**
+ * Admission control of exports on this node. At most
+ * {@code dataformat.export.max_concurrent} exports run at once; others wait
+ * in a queue of {@code dataformat.export.max_queued} entries and are
+ * rejected beyond it.
+ *
+ * Waiting exports are grouped by tenant (caller identity or index, see
+ * {@code dataformat.export.fairness}) and tenants are served round-robin,
+ * so a single tenant cannot take all slots while others are waiting.
+ * Tenants are not named in the stats, since an identity is derived from
+ * the credentials of the caller.
+ */
+public class ExportScheduler implements ToXContentObject {
+    private static final Logger logger = LogManager.getLogger(ExportScheduler.class);
+
+    public static final String FAIRNESS_USER = "user";
+
+    public static final String FAIRNESS_INDEX = "index";
+
+    public static final Setting<Integer> MAX_CONCURRENT_SETTING = new Setting<>("dataformat.export.max_concurrent",
+            s -> Integer.toString(Math.max(1, EsExecutors.allocatedProcessors(s) / 2)),
+            s -> Setting.parseInt(s, 1, "dataformat.export.max_concurrent"), Property.NodeScope);
+
+    public static final Setting<Integer> MAX_QUEUED_SETTING = Setting.intSetting("dataformat.export.max_queued",
+            100, 0, Property.NodeScope);
+
+    public static final Setting<String> FAIRNESS_SETTING = new Setting<>("dataformat.export.fairness",
+            FAIRNESS_USER, s -> {
+                if (!FAIRNESS_USER.equals(s) && !FAIRNESS_INDEX.equals(s)) {
+                    throw new IllegalArgumentException("dataformat.export.fairness must be " + FAIRNESS_USER
+                            + " or " + FAIRNESS_INDEX + ": " + s);
+                }
+                return s;
+            }, Property.NodeScope);
+
+    private final int maxConcurrent;
+
+    private final int maxQueued;
+
+    // tenants having waiting exports, in serving order
+    private final Deque<String> tenants = new ArrayDeque<>();
+
+    private final Map<String, Deque<Pending<?>>> queues = new HashMap<>();
+
+    private int running = 0;
+
+    private int queued = 0;
+
+    private long admitted = 0;
+
+    private long rejected = 0;
+
+    private long cancelled = 0;
+
+    private long totalWaitMillis = 0;
+
+    private long maxWaitMillis = 0;
+
+    public ExportScheduler(final Settings settings) {
+        this.maxConcurrent = MAX_CONCURRENT_SETTING.get(settings);
+        this.maxQueued = MAX_QUEUED_SETTING.get(settings);
+    }
+
+    /**
+     * Run the export now, or when a slot is free. The slot is released when
+     * the listener is notified.
+     *
+     * @param task task of the export
+     * @param tenant fairness group
+     * @param listener listener of the export
+     * @param runner starts the export
+     */
+    public <T> void execute(final ExportTask task, final String tenant, final ActionListener<T> listener,
+            final Consumer<ActionListener<T>> runner) {
+        final Pending<T> pending = new Pending<>(task, tenant, listener, runner);
+        final boolean admittedNow;
+        synchronized (this) {
+            admittedNow = running < maxConcurrent && queued == 0;
+            if (admittedNow) {
+                running++;
+                admitted++;
+            } else if (queued >= maxQueued) {
+                rejected++;
+                throw new EsRejectedExecutionException("Too many exports: running[" + running + "], queued["
+                        + queued + "]");
+            } else {
+                queues.computeIfAbsent(tenant, k -> {
+                    tenants.add(k);
+                    return new ArrayDeque<>();
+                }).add(pending);
+                queued++;
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Queued export: tenant: {}, queued: {}", tenant, queued);
+                }
+            }
+        }
+        if (admittedNow) {
+            pending.run();
+            return;
+        }
+        task.setCancelListener(() -> cancel(pending));
+        // a slot may have been released meanwhile
+        dispatch();
+    }
+
+    private void cancel(final Pending<?> pending) {
+        synchronized (this) {
+            final Deque<Pending<?>> queue = queues.get(pending.tenant);
+            if (queue == null || !queue.remove(pending)) {
+                // already running
+                return;
+            }
+            if (queue.isEmpty()) {
+                queues.remove(pending.tenant);
+                tenants.remove(pending.tenant);
+            }
+            queued--;
+            cancelled++;
+        }
+        pending.listener.onFailure(new TaskCancelledException("cancelled: " + pending.task.getReasonCancelled()));
+    }
+
+    private void release() {
+        synchronized (this) {
+            running--;
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (true) {
+            final Pending<?> next;
+            synchronized (this) {
+                if (running >= maxConcurrent) {
+                    return;
+                }
+                final String tenant = tenants.poll();
+                if (tenant == null) {
+                    return;
+                }
+                final Deque<Pending<?>> queue = queues.get(tenant);
+                next = queue.poll();
+                if (queue.isEmpty()) {
+                    queues.remove(tenant);
+                } else {
+                    // round-robin: the tenant waits for the others
+                    tenants.add(tenant);
+                }
+                queued--;
+                running++;
+                admitted++;
+                final long waitMillis = System.currentTimeMillis() - next.queuedTime;
+                totalWaitMillis += waitMillis;
+                maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+            }
+            next.run();
+        }
+    }
+
+    @Override
+    public synchronized XContentBuilder toXContent(final XContentBuilder builder, final Params params)
+            throws IOException {
+        builder.startObject();
+        builder.field("max_concurrent", maxConcurrent);
+        builder.field("max_queued", maxQueued);
+        builder.field("running", running);
+        builder.field("queued", queued);
+        builder.field("admitted", admitted);
+        builder.field("rejected", rejected);
+        builder.field("cancelled", cancelled);
+        builder.field("total_wait_time_in_millis", totalWaitMillis);
+        builder.field("max_wait_time_in_millis", maxWaitMillis);
+        int maxQueuedByTenant = 0;
+        for (final Deque<Pending<?>> queue : queues.values()) {
+            maxQueuedByTenant = Math.max(maxQueuedByTenant, queue.size());
+        }
+        builder.field("queued_tenants", queues.size());
+        builder.field("max_queued_by_tenant", maxQueuedByTenant);
+        return builder.endObject();
+    }
+
+    private class Pending<T> {
+        private final ExportTask task;
+
+        private final String tenant;
+
+        private final ActionListener<T> listener;
+
+        private final Consumer<ActionListener<T>> runner;
+
+        private final long queuedTime = System.currentTimeMillis();
+
+        private Pending(final ExportTask task, final String tenant, final ActionListener<T> listener,
+                final Consumer<ActionListener<T>> runner) {
+            this.task = task;
+            this.tenant = tenant;
+            this.listener = listener;
+            this.runner = runner;
+        }
+
+        private void run() {
+            final ActionListener<T> releasing = ActionListener.runAfter(listener, ExportScheduler.this::release);
+            try {
+                runner.accept(releasing);
+            } catch (final Exception e) {
+                releasing.onFailure(e);
+            }
+        }
+    }
+}
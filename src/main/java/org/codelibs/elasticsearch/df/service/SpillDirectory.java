@@ -0,0 +1,247 @@
+package org.codelibs.elasticsearch.df.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.RatioValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.Scheduler.Cancellable;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Directory of the temporary output files of this node.
+ *
+ * A new export is refused above the low disk watermark or the spill quota,
+ * and a running export is aborted above the high watermark or the quota.
+ * Watermarks are a ratio of used disk space ({@code 90%}) or the free space
+ * to keep ({@code 10gb}), like the allocation watermarks.
+ *
+ * The directory may be shared, such as {@code /tmp}, so only files named
+ * with {@link #FILE_PREFIX} are considered. Those left by a previous run are
+ * deleted on startup, and those which no export owns are swept
+ * periodically.
+ */
+public class SpillDirectory implements Closeable, ToXContentObject {
+    private static final Logger logger = LogManager.getLogger(SpillDirectory.class);
+
+    public static final Setting<String> PATH_SETTING = Setting.simpleString("dataformat.spill.path",
+            Property.NodeScope);
+
+    public static final Setting<ByteSizeValue> QUOTA_SETTING = Setting.byteSizeSetting("dataformat.spill.quota",
+            new ByteSizeValue(-1), Property.NodeScope);
+
+    public static final Setting<String> LOW_WATERMARK_SETTING = new Setting<>("dataformat.spill.watermark.low",
+            "90%", s -> validateWatermark("dataformat.spill.watermark.low", s), Property.NodeScope);
+
+    public static final Setting<String> HIGH_WATERMARK_SETTING = new Setting<>("dataformat.spill.watermark.high",
+            "95%", s -> validateWatermark("dataformat.spill.watermark.high", s), Property.NodeScope);
+
+    public static final Setting<TimeValue> SWEEP_INTERVAL_SETTING = Setting.timeSetting(
+            "dataformat.spill.sweep_interval", TimeValue.timeValueMinutes(10), TimeValue.timeValueSeconds(1),
+            Property.NodeScope);
+
+    /** Prefix of the names of the files created in this directory. */
+    public static final String FILE_PREFIX = "es_df_";
+
+    // interval of the directory size computation for the quota
+    private static final long USAGE_INTERVAL = TimeValue.timeValueSeconds(1).nanos();
+
+    private final Path directory;
+
+    private final long quota;
+
+    private final String lowWatermark;
+
+    private final String highWatermark;
+
+    private final long sweepInterval;
+
+    private final Set<Path> files = ConcurrentCollections.newConcurrentSet();
+
+    private final Cancellable sweepTask;
+
+    private volatile long usage = 0;
+
+    private volatile long usageTime = System.nanoTime() - USAGE_INTERVAL;
+
+    private final AtomicLong sweptFiles = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong aborted = new AtomicLong();
+
+    public SpillDirectory(final Settings settings, final Path defaultDirectory, final ThreadPool threadPool) {
+        final String path = PATH_SETTING.get(settings);
+        this.directory = path.isEmpty() ? defaultDirectory : new File(path).toPath();
+        this.quota = QUOTA_SETTING.get(settings).getBytes();
+        this.lowWatermark = LOW_WATERMARK_SETTING.get(settings);
+        this.highWatermark = HIGH_WATERMARK_SETTING.get(settings);
+        final TimeValue interval = SWEEP_INTERVAL_SETTING.get(settings);
+        this.sweepInterval = interval.millis();
+        try {
+            Files.createDirectories(directory);
+            // outputs of a previous run
+            sweep(0);
+        } catch (final IOException e) {
+            throw new ElasticsearchException("Failed to create " + directory, e);
+        }
+        this.sweepTask = threadPool.scheduleWithFixedDelay(() -> {
+            try {
+                sweep(sweepInterval);
+            } catch (final IOException e) {
+                logger.warn("Failed to sweep " + directory, e);
+            }
+        }, interval, ThreadPool.Names.GENERIC);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Create a temporary output file for a new export.
+     *
+     * @param prefix appended to {@link #FILE_PREFIX}
+     * @param suffix
+     * @return the file, owned by the caller until it is deleted or moved
+     * @throws IOException
+     */
+    public File createFile(final String prefix, final String suffix) throws IOException {
+        if (isExceeded(lowWatermark, directory.toFile()) || quota >= 0 && getUsage() >= quota) {
+            rejected.incrementAndGet();
+            throw new ElasticsearchStatusException("Not enough space to export data in " + directory,
+                    RestStatus.INSUFFICIENT_STORAGE);
+        }
+        final Path file = Files.createTempFile(directory, FILE_PREFIX + prefix, suffix);
+        files.add(file);
+        return file.toFile();
+    }
+
+    /**
+     * Check the disk space while an export writes the given file.
+     *
+     * @param outputFile
+     */
+    public void checkDiskSpace(final File outputFile) {
+        if (isExceeded(highWatermark, outputFile)) {
+            aborted.incrementAndGet();
+            throw new ElasticsearchStatusException("The disk of " + outputFile.getParent()
+                    + " exceeds the high watermark " + highWatermark, RestStatus.INSUFFICIENT_STORAGE);
+        }
+        if (quota >= 0 && getUsage() > quota && files.contains(outputFile.toPath())) {
+            aborted.incrementAndGet();
+            throw new ElasticsearchStatusException("The spill quota " + new ByteSizeValue(quota) + " is exceeded",
+                    RestStatus.INSUFFICIENT_STORAGE);
+        }
+    }
+
+    private long getUsage() {
+        final long now = System.nanoTime();
+        if (now - usageTime >= USAGE_INTERVAL) {
+            usageTime = now;
+            long size = 0;
+            try (Stream<Path> stream = Files.list(directory)) {
+                size = stream.filter(SpillDirectory::isSpillFile).mapToLong(p -> p.toFile().length()).sum();
+            } catch (final IOException e) {
+                logger.warn("Failed to list " + directory, e);
+            }
+            usage = size;
+        }
+        return usage;
+    }
+
+    /**
+     * Delete files which no export owns and which were not modified for
+     * the given time.
+     *
+     * @param minAge
+     * @throws IOException
+     */
+    void sweep(final long minAge) throws IOException {
+        // moved or deleted by their owner
+        files.removeIf(file -> !Files.exists(file));
+        final long threshold = System.currentTimeMillis() - minAge;
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.filter(SpillDirectory::isSpillFile).filter(file -> !files.contains(file)).forEach(file -> {
+                final File f = file.toFile();
+                if (f.lastModified() <= threshold) {
+                    if (f.delete()) {
+                        sweptFiles.incrementAndGet();
+                        logger.info("Deleted an orphaned output file: {}", f.getAbsolutePath());
+                    } else {
+                        logger.warn("Failed to delete: {}", f.getAbsolutePath());
+                    }
+                }
+            });
+        }
+    }
+
+    private static boolean isSpillFile(final Path file) {
+        return file.getFileName().toString().startsWith(FILE_PREFIX) && Files.isRegularFile(file);
+    }
+
+    @Override
+    public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+        final File dir = directory.toFile();
+        builder.startObject();
+        builder.field("path", dir.getAbsolutePath());
+        builder.field("files", files.size());
+        builder.field("size_in_bytes", getUsage());
+        builder.field("quota_in_bytes", quota);
+        builder.field("free_in_bytes", dir.getUsableSpace());
+        builder.field("total_in_bytes", dir.getTotalSpace());
+        builder.field("rejected", rejected.get());
+        builder.field("aborted", aborted.get());
+        builder.field("swept", sweptFiles.get());
+        return builder.endObject();
+    }
+
+    @Override
+    public void close() {
+        sweepTask.cancel();
+    }
+
+    private static boolean isExceeded(final String watermark, final File file) {
+        final File dir = file.isDirectory() ? file : file.getAbsoluteFile().getParentFile();
+        final long total = dir.getTotalSpace();
+        if (total == 0) {
+            // unknown
+            return false;
+        }
+        final long free = dir.getUsableSpace();
+        try {
+            final double ratio = RatioValue.parseRatioValue(watermark).getAsRatio();
+            return (double) (total - free) / total > ratio;
+        } catch (final ElasticsearchParseException e) {
+            return free < ByteSizeValue.parseBytesSizeValue(watermark, "watermark").getBytes();
+        }
+    }
+
+    private static String validateWatermark(final String key, final String value) {
+        try {
+            RatioValue.parseRatioValue(value);
+        } catch (final ElasticsearchParseException e) {
+            ByteSizeValue.parseBytesSizeValue(value, key);
+        }
+        return value;
+    }
+}
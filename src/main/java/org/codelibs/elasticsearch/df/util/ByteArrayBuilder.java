@@ -0,0 +1,123 @@
+package org.codelibs.elasticsearch.df.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte array for binary formats, with little-endian and varint
+ * writes. Not synchronized.
+ */
+public class ByteArrayBuilder extends OutputStream {
+
+    private byte[] bytes;
+
+    private int size = 0;
+
+    public ByteArrayBuilder() {
+        this(256);
+    }
+
+    public ByteArrayBuilder(final int capacity) {
+        bytes = new byte[capacity];
+    }
+
+    private void ensure(final int n) {
+        if (size + n > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+        }
+    }
+
+    @Override
+    public void write(final int b) {
+        ensure(1);
+        bytes[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+        ensure(len);
+        System.arraycopy(b, off, bytes, size, len);
+        size += len;
+    }
+
+    @Override
+    public void write(final byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    public void writeShortLE(final int v) {
+        ensure(2);
+        bytes[size++] = (byte) v;
+        bytes[size++] = (byte) (v >>> 8);
+    }
+
+    public void writeIntLE(final int v) {
+        ensure(4);
+        bytes[size++] = (byte) v;
+        bytes[size++] = (byte) (v >>> 8);
+        bytes[size++] = (byte) (v >>> 16);
+        bytes[size++] = (byte) (v >>> 24);
+    }
+
+    public void writeLongLE(final long v) {
+        writeIntLE((int) v);
+        writeIntLE((int) (v >>> 32));
+    }
+
+    /**
+     * Write an unsigned LEB128 varint.
+     *
+     * @param v
+     */
+    public void writeVarLong(long v) {
+        while ((v & ~0x7fL) != 0) {
+            write((int) (v & 0x7f | 0x80));
+            v >>>= 7;
+        }
+        write((int) v);
+    }
+
+    /**
+     * Write a zigzag encoded varint.
+     *
+     * @param v
+     */
+    public void writeZigZagLong(final long v) {
+        writeVarLong(v << 1 ^ v >> 63);
+    }
+
+    public void writeUtf8(final String value) {
+        write(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Overwrite a little-endian int written before.
+     *
+     * @param position
+     * @param v
+     */
+    public void setIntLE(final int position, final int v) {
+        bytes[position] = (byte) v;
+        bytes[position + 1] = (byte) (v >>> 8);
+        bytes[position + 2] = (byte) (v >>> 16);
+        bytes[position + 3] = (byte) (v >>> 24);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public void writeTo(final OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+}
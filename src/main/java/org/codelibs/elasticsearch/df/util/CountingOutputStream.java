@@ -0,0 +1,33 @@
+package org.codelibs.elasticsearch.df.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream which counts the bytes written through it.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+    private volatile long count = 0;
+
+    public CountingOutputStream(final OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
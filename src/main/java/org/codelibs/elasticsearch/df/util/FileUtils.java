@@ -0,0 +1,32 @@
+package org.codelibs.elasticsearch.df.util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+public class FileUtils {
+    private FileUtils() {
+    }
+
+    /**
+     * Copy a region of a file with {@link FileChannel#transferTo}, which
+     * avoids a copy through the heap when the kernel supports it.
+     *
+     * @param in
+     * @param position
+     * @param count
+     * @param out
+     * @throws IOException
+     */
+    public static void transfer(final FileChannel in, long position, long count,
+            final WritableByteChannel out) throws IOException {
+        while (count > 0) {
+            final long n = in.transferTo(position, count, out);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            position += n;
+            count -= n;
+        }
+    }
+}
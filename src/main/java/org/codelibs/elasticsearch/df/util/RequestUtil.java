@@ -2,12 +2,27 @@ package org.codelibs.elasticsearch.df.util;
 
 import static org.elasticsearch.common.unit.TimeValue.parseTimeValue;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.codelibs.elasticsearch.df.content.Compression;
+import org.codelibs.elasticsearch.df.content.DataContent;
+import org.elasticsearch.common.hash.MessageDigests;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
 import org.elasticsearch.rest.RestRequest;
 
 public class RequestUtil {
     private static final TimeValue DEFAULT_SCROLL = new TimeValue(60000);
 
+    private static final int DEFAULT_PREFETCH = 1;
+
+    // set by the security plugin for an authenticated request
+    private static final String[] IDENTITY_HEADERS = { "_xpack_security_authentication",
+            "Authorization", "es-security-runas-user" };
+
+    private static final int DEFAULT_COMPRESS_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
     private RequestUtil() {
     }
 
@@ -19,4 +34,106 @@ public class RequestUtil {
             return DEFAULT_SCROLL;
         }
     }
+
+    public static long getMaxRows(final RestRequest request) {
+        final long maxRows = request.paramAsLong("max_rows", -1);
+        if (maxRows < -1) {
+            throw new IllegalArgumentException("max_rows must be >= 0: " + maxRows);
+        }
+        return maxRows;
+    }
+
+    /**
+     * Get the compression of the output. {@code compress} is used if given.
+     * Otherwise a download is compressed as accepted by
+     * {@code Accept-Encoding}, zstd first, and a file is not compressed.
+     *
+     * @param request
+     * @return the compression
+     */
+    public static Compression getCompression(final RestRequest request) {
+        final String compress = request.param("compress");
+        if (compress != null) {
+            return Compression.of(compress);
+        }
+        final String acceptEncoding = request.header("Accept-Encoding");
+        if (request.hasParam("file") || acceptEncoding == null) {
+            return Compression.NONE;
+        }
+        boolean gzip = false;
+        for (final String value : acceptEncoding.split(",")) {
+            final String[] tokens = value.split(";");
+            if (tokens.length > 1 && tokens[1].trim().matches("q=0(\\.0*)?")) {
+                continue;
+            }
+            final String encoding = tokens[0].trim().toLowerCase(Locale.ROOT);
+            if (Compression.ZSTD.encoding().equals(encoding)) {
+                return Compression.ZSTD;
+            } else if (Compression.GZIP.encoding().equals(encoding)) {
+                gzip = true;
+            }
+        }
+        return gzip ? Compression.GZIP : Compression.NONE;
+    }
+
+    public static int getCompressThreads(final RestRequest request) {
+        final int threads = request.paramAsInt("compress.threads", DEFAULT_COMPRESS_THREADS);
+        if (threads < 1) {
+            throw new IllegalArgumentException("compress.threads must be >= 1: " + threads);
+        }
+        return threads;
+    }
+
+    public static boolean isDocValues(final RestRequest request) {
+        final String sourceMode = request.param("source_mode", "source");
+        if ("docvalues".equals(sourceMode)) {
+            return true;
+        } else if ("source".equals(sourceMode)) {
+            return false;
+        }
+        throw new IllegalArgumentException("source_mode must be source or docvalues: " + sourceMode);
+    }
+
+    public static String getSchema(final RestRequest request) {
+        final String schema = request.param("schema", DataContent.SCHEMA_DYNAMIC);
+        if (!DataContent.SCHEMA_DYNAMIC.equals(schema) && !DataContent.SCHEMA_MAPPING.equals(schema)) {
+            throw new IllegalArgumentException("schema must be mapping or dynamic: " + schema);
+        }
+        return schema;
+    }
+
+    public static int getPrefetch(final RestRequest request) {
+        final int prefetch = request.paramAsInt("prefetch", DEFAULT_PREFETCH);
+        if (prefetch < 0) {
+            throw new IllegalArgumentException("prefetch must be >= 0: " + prefetch);
+        }
+        return prefetch;
+    }
+
+    /**
+     * Get an identity of the caller, which is the digest of its
+     * authentication headers. Callers without them share the empty
+     * identity.
+     *
+     * @param request
+     * @param threadContext
+     * @return the identity, or an empty string
+     */
+    public static String getIdentity(final RestRequest request, final ThreadContext threadContext) {
+        final StringBuilder buf = new StringBuilder();
+        for (final String name : IDENTITY_HEADERS) {
+            String value = threadContext.getHeader(name);
+            if (value == null) {
+                value = request.header(name);
+            }
+            if (value != null) {
+                buf.append(name).append('=').append(value).append('\n');
+            }
+        }
+        if (buf.length() == 0) {
+            return "";
+        }
+        return MessageDigests.toHexString(
+                MessageDigests.sha256().digest(buf.toString().getBytes(StandardCharsets.UTF_8)));
+    }
 }
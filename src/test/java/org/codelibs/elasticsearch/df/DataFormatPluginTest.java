@@ -5,29 +5,79 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.codec.Charsets;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.SeekableByteArrayInput;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.parquet.format.ColumnChunk;
+import org.apache.parquet.format.ColumnMetaData;
+import org.apache.parquet.format.CompressionCodec;
+import org.apache.parquet.format.DataPageHeader;
+import org.apache.parquet.format.Encoding;
+import org.apache.parquet.format.FileMetaData;
+import org.apache.parquet.format.PageHeader;
+import org.apache.parquet.format.PageType;
+import org.apache.parquet.format.RowGroup;
+import org.apache.parquet.format.Type;
+import org.apache.parquet.format.Util;
 import org.apache.poi.hssf.usermodel.HSSFRow;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.codelibs.curl.CurlRequest;
 import org.codelibs.curl.CurlResponse;
 import org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner;
 import org.codelibs.elasticsearch.runner.net.EcrCurl;
 import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.Streams;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.Settings.Builder;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.node.Node;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -38,6 +88,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.BlockJUnit4ClassRunner;
 
+import io.airlift.compress.snappy.SnappyDecompressor;
+import io.airlift.compress.zstd.ZstdDecompressor;
+import io.airlift.compress.zstd.ZstdInputStream;
+
 @RunWith(BlockJUnit4ClassRunner.class)
 public class DataFormatPluginTest {
 
@@ -82,6 +136,8 @@ public class DataFormatPluginTest {
                 settingsBuilder.put("http.cors.enabled", true);
                 settingsBuilder.put("http.cors.allow-origin", "*");
                 settingsBuilder.put("discovery.type", "single-node");
+                settingsBuilder.put("dataformat.cache.size", "10mb");
+                settingsBuilder.put("dataformat.spill.sweep_interval", "1s");
                 // settingsBuilder.putList("discovery.seed_hosts", "127.0.0.1:9301");
                 // settingsBuilder.putList("cluster.initial_master_nodes", "127.0.0.1:9301");
             }
@@ -130,6 +186,52 @@ public class DataFormatPluginTest {
         }
     }
 
+    @Test
+    public void dumpCsvFromDocValues() throws IOException {
+        paramsCsv.put("source_mode", "docvalues");
+        paramsCsv.put("fields_name", "aaa.keyword,bbb,eee.ggg");
+        paramsCsv.put("q", "bbb:7");
+        try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+            final String[] lines = response.getContentAsString().split("\n");
+            assertEquals(2, lines.length);
+            assertEquals("\"aaa.keyword\",\"bbb\",\"eee.ggg\"", lines[0]);
+            assertEquals("\"test 7\",\"7\",\"7\"", lines[1]);
+        }
+        paramsCsv.remove("fields_name");
+        try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+            assertEquals(400, response.getHttpStatusCode());
+        }
+    }
+
+    @Test
+    public void dumpCsvWithObjectField() throws IOException {
+        // an object is an empty cell, as in the flattened map
+        paramsCsv.put("fields_name", "aaa,eee");
+        paramsCsv.put("q", "bbb:7");
+        try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+            final String[] lines = response.getContentAsString().split("\n");
+            assertEquals(2, lines.length);
+            assertEquals("\"aaa\",\"eee\"", lines[0]);
+            assertTrue(lines[1], lines[1].startsWith("\"test 7\","));
+            assertLineNotContains(lines[1], "fff", "TEST 7");
+        }
+    }
+
+    @Test
+    public void dumpCsvWithMappingSchema() throws IOException {
+        paramsCsv.put("schema", "mapping");
+        try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+            final String[] lines = response.getContentAsString().split("\n");
+            assertEquals(docNumber + 1, lines.length);
+            // mapping order, without multi-fields
+            assertEquals("\"aaa\",\"bbb\",\"ccc\",\"eee.fff\",\"eee.ggg\",\"eee.hhh\"", lines[0]);
+        }
+        paramsCsv.put("schema", "unknown");
+        try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+            assertEquals(400, response.getHttpStatusCode());
+        }
+    }
+
     @Test
     public void dumpCsvWithDenotedFields() throws IOException {
         dumpCsvWithDenotedFields("fields_name");
@@ -148,6 +250,20 @@ public class DataFormatPluginTest {
         }
     }
 
+    @Test
+    public void dumpCsvWithoutQuote() throws IOException {
+        paramsCsv.put("q", "bbb:7");
+        paramsCsv.put("fields_name", "aaa,bbb");
+        paramsCsv.put("csv.separator", "\t");
+        paramsCsv.put("csv.quoteDisabled", "true");
+        try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+            final String[] lines = response.getContentAsString().split("\n");
+            assertEquals(2, lines.length);
+            assertEquals("aaa\tbbb", lines[0]);
+            assertEquals("test 7\t7", lines[1]);
+        }
+    }
+
     @Test
     public void dumpCsvWithQuery() throws IOException {
 
@@ -219,9 +335,356 @@ public class DataFormatPluginTest {
         }
     }
 
+    @Test
+    public void dumpCsvWithScroll() throws IOException {
+        for (final String prefetch : new String[] { "0", "1", "3" }) {
+            paramsCsv.put("scroll", "1m");
+            paramsCsv.put("size", "3");
+            paramsCsv.put("prefetch", prefetch);
+            try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+                final String[] lines = response.getContentAsString().split("\n");
+                assertEquals(docNumber + 1, lines.length);
+                assertLineContains(lines[0], "\"aaa\"", "\"bbb\"", "\"ccc\"", "\"eee.fff\"", "\"eee.ggg\"", "\"eee.hhh\"");
+            }
+        }
+    }
+
+    @Test
+    public void dumpCsvWithSlices() throws IOException {
+        // no prefetch: the waiting ordered slices are spilled
+        for (final String[] params : new String[][] { { "false", "1" }, { "true", "1" }, { "true", "0" } }) {
+            paramsCsv.put("slices", "3");
+            paramsCsv.put("slices.ordered", params[0]);
+            paramsCsv.put("prefetch", params[1]);
+            paramsCsv.put("size", "2");
+            try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+                final String[] lines = response.getContentAsString().split("\n");
+                assertEquals(docNumber + 1, lines.length);
+                assertLineContains(lines[0], "\"aaa\"", "\"bbb\"", "\"ccc\"", "\"eee.fff\"", "\"eee.ggg\"", "\"eee.hhh\"");
+                final Set<String> rows = new HashSet<>(Arrays.asList(lines).subList(1, lines.length));
+                assertEquals(docNumber, rows.size());
+            }
+        }
+    }
+
+    @Test
+    public void dumpCsvWithSearchAfter() throws IOException {
+        paramsCsv.put("pagination", "search_after");
+        paramsCsv.put("size", "3");
+        // the tiebreaker is required
+        try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+            assertEquals(400, response.getHttpStatusCode());
+        }
+        paramsCsv.put("search_after.tiebreaker", "bbb");
+        try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+            final String[] lines = response.getContentAsString().split("\n");
+            assertEquals(docNumber + 1, lines.length);
+            final Set<String> rows = new HashSet<>(Arrays.asList(lines).subList(1, lines.length));
+            assertEquals(docNumber, rows.size());
+        }
+        // _doc is not stable without a point in time
+        try (CurlResponse response = createRequest(node, path, paramsCsv)
+                .body("{\"query\":{\"match_all\":{}},\"sort\":[\"_doc\"]}").execute()) {
+            assertEquals(400, response.getHttpStatusCode());
+        }
+    }
+
+    @Test
+    public void dumpCsvWithCompression() throws IOException {
+        paramsCsv.put("scroll", "1m");
+        paramsCsv.put("size", "5");
+        paramsCsv.put("compress.threads", "2");
+        for (final String compress : new String[] { "gzip", "bgzf", "zstd" }) {
+            paramsCsv.put("compress", compress);
+            final String encoding = "zstd".equals(compress) ? "zstd" : "gzip";
+            try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+                assertEquals(encoding, response.getHeaderValue("Content-Encoding"));
+                // gzip is decoded by the client
+                try (InputStream in = "gzip".equals(encoding) ? response.getContentAsStream()
+                        : new ZstdInputStream(response.getContentAsStream());
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8))) {
+                    final List<String> lines = reader.lines().collect(Collectors.toList());
+                    assertEquals(docNumber + 1, lines.size());
+                    assertLineContains(lines.get(0), "\"aaa\"", "\"bbb\"", "\"ccc\"");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void dumpCsvAsJob() throws Exception {
+        paramsCsv.put("wait_for_completion", "false");
+        final String id;
+        try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+            final Map<String, Object> contentAsMap = response.getContent(EcrCurl.jsonParser());
+            assertEquals("true", contentAsMap.get("acknowledged").toString());
+            id = contentAsMap.get("id").toString();
+        }
+
+        final String jobPath = "/_data/_jobs/" + id;
+        for (int i = 0; i < 100; i++) {
+            try (CurlResponse response = EcrCurl.get(node, jobPath).execute()) {
+                final Map<String, Object> contentAsMap = response.getContent(EcrCurl.jsonParser());
+                if (Boolean.TRUE.equals(contentAsMap.get("completed"))) {
+                    assertEquals(docNumber, ((Number) contentAsMap.get("rows")).intValue());
+                    break;
+                }
+            }
+            Thread.sleep(100);
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, jobPath + "/download").execute()) {
+            final String[] lines = response.getContentAsString().split("\n");
+            assertEquals(docNumber + 1, lines.length);
+        }
+        // another caller cannot see the job
+        try (CurlResponse response = EcrCurl.get(node, jobPath + "/download")
+                .header("Authorization", "Basic " + Base64.getEncoder().encodeToString(
+                        "other:secret".getBytes(Charsets.UTF_8))).execute()) {
+            assertEquals(404, response.getHttpStatusCode());
+        }
+        try (CurlResponse response = EcrCurl.get(node, "/_data/_jobs/unknown").execute()) {
+            assertEquals(404, response.getHttpStatusCode());
+        }
+    }
+
+    @Test
+    public void cancelExportJob() throws Exception {
+        final String index = "dataset_cancel";
+        runner.createIndex(index, (Settings) null);
+        final BulkRequestBuilder bulk = runner.client().prepareBulk();
+        for (int i = 1; i <= 3000; i++) {
+            bulk.add(new IndexRequest(index).id(String.valueOf(i)).source("{\"aaa\":\"test " + i + "\"}",
+                    XContentType.JSON));
+        }
+        assertFalse(bulk.get().hasFailures());
+        runner.refresh();
+
+        // one hit per page keeps the export running
+        final String id;
+        try (CurlResponse response = EcrCurl.get(node, "/" + index + "/_data").param("format", "csv")
+                .param("scroll", "1m").param("size", "1").param("wait_for_completion", "false").execute()) {
+            final Map<String, Object> contentAsMap = response.getContent(EcrCurl.jsonParser());
+            id = contentAsMap.get("id").toString();
+        }
+        try (CurlResponse response = EcrCurl.post(node, "/_tasks/" + id + "/_cancel").execute()) {
+            assertEquals(200, response.getHttpStatusCode());
+        }
+
+        final String jobPath = "/_data/_jobs/" + id;
+        Map<String, Object> job = null;
+        for (int i = 0; i < 100; i++) {
+            try (CurlResponse response = EcrCurl.get(node, jobPath).execute()) {
+                job = response.getContent(EcrCurl.jsonParser());
+            }
+            if (Boolean.TRUE.equals(job.get("completed"))) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        assertEquals(Boolean.TRUE, job.get("completed"));
+        assertTrue(job.toString(), job.containsKey("error"));
+
+        // the slot and the scroll are released
+        for (int i = 0; i < 100 && (getSchedulerStats("running") > 0 || getOpenSearchContexts() > 0); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, getSchedulerStats("running"));
+        assertEquals(0, getOpenSearchContexts());
+    }
+
+    private long getOpenSearchContexts() throws IOException {
+        try (CurlResponse response = EcrCurl.get(node, "/_nodes/stats/indices/search").execute()) {
+            final Map<String, Object> contentAsMap = response.getContent(EcrCurl.jsonParser());
+            @SuppressWarnings("unchecked")
+            final Map<String, Map<String, Map<String, Map<String, Object>>>> nodes =
+                    (Map<String, Map<String, Map<String, Map<String, Object>>>>) contentAsMap.get("nodes");
+            long count = 0;
+            for (final Map<String, Map<String, Map<String, Object>>> stats : nodes.values()) {
+                count += ((Number) stats.get("indices").get("search").get("open_contexts")).longValue();
+            }
+            return count;
+        }
+    }
+
+    @Test
+    public void getStats() throws IOException {
+        try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+            assertEquals(200, response.getHttpStatusCode());
+        }
+        try (CurlResponse response = EcrCurl.get(node, "/_data/_stats").execute()) {
+            final Map<String, Object> contentAsMap = response.getContent(EcrCurl.jsonParser());
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> scheduler = (Map<String, Object>) contentAsMap.get("scheduler");
+            assertTrue(((Number) scheduler.get("admitted")).intValue() >= 1);
+            assertEquals(0, ((Number) scheduler.get("queued")).intValue());
+            assertTrue(scheduler.containsKey("max_wait_time_in_millis"));
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> spill = (Map<String, Object>) contentAsMap.get("spill");
+            assertTrue(spill.get("path").toString().endsWith("dataformat"));
+            assertTrue(((Number) spill.get("free_in_bytes")).longValue() > 0);
+        }
+    }
+
+    @Test
+    public void sweepSpillDirectory() throws Exception {
+        final File directory;
+        try (CurlResponse response = EcrCurl.get(node, "/_data/_stats").execute()) {
+            final Map<String, Object> contentAsMap = response.getContent(EcrCurl.jsonParser());
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> spill = (Map<String, Object>) contentAsMap.get("spill");
+            directory = new File(spill.get("path").toString());
+        }
+        final File foreignFile = new File(directory, "foreign.dat");
+        final File orphanFile = new File(directory, "es_df_output_orphan.dat");
+        try {
+            Files.write(foreignFile.toPath(), "foreign".getBytes(Charsets.UTF_8));
+            Files.write(orphanFile.toPath(), "orphan".getBytes(Charsets.UTF_8));
+            final long lastModified = System.currentTimeMillis() - 60000;
+            assertTrue(foreignFile.setLastModified(lastModified));
+            assertTrue(orphanFile.setLastModified(lastModified));
+            for (int i = 0; i < 100 && orphanFile.exists(); i++) {
+                Thread.sleep(100);
+            }
+            assertFalse(orphanFile.exists());
+            assertTrue(foreignFile.exists());
+        } finally {
+            foreignFile.delete();
+            orphanFile.delete();
+        }
+    }
+
+    @Test
+    public void dumpCsvFromCache() throws IOException {
+        final String index = "dataset_cache";
+        runner.createIndex(index, (Settings) null);
+        for (int i = 1; i <= 10; i++) {
+            runner.insert(index, String.valueOf(i), "{\"aaa\":\"test " + i + "\"}");
+        }
+        runner.refresh();
+
+        final String cachePath = "/" + index + "/_data";
+        paramsCsv.put("size", "100");
+        final long hits = getCacheStats("hits");
+        // cached on the second request
+        for (int i = 0; i < 3; i++) {
+            try (CurlResponse response = createRequest(node, cachePath, paramsCsv).execute()) {
+                assertEquals(11, response.getContentAsString().split("\n").length);
+            }
+        }
+        assertEquals(hits + 1, getCacheStats("hits"));
+
+        // another caller does not share the entry
+        for (int i = 0; i < 2; i++) {
+            try (CurlResponse response = createRequest(node, cachePath, paramsCsv)
+                    .header("Authorization", "Basic " + Base64.getEncoder().encodeToString(
+                            "other:secret".getBytes(Charsets.UTF_8))).execute()) {
+                assertEquals(11, response.getContentAsString().split("\n").length);
+            }
+        }
+        assertEquals(hits + 1, getCacheStats("hits"));
+
+        // a new document changes the key
+        runner.insert(index, "11", "{\"aaa\":\"test 11\"}");
+        runner.refresh();
+        try (CurlResponse response = createRequest(node, cachePath, paramsCsv).execute()) {
+            assertEquals(12, response.getContentAsString().split("\n").length);
+        }
+        assertEquals(hits + 1, getCacheStats("hits"));
+
+        // date math with now is never cached
+        final String nowQuery = "{\"query\":{\"range\":{\"@timestamp\":{\"lte\":\"now-1d\"}}}}";
+        for (int i = 0; i < 3; i++) {
+            try (CurlResponse response = createRequest(node, cachePath, paramsCsv).body(nowQuery).execute()) {
+                assertEquals(200, response.getHttpStatusCode());
+            }
+        }
+        assertEquals(hits + 1, getCacheStats("hits"));
+
+        paramsCsv.put("cache", "false");
+        try (CurlResponse response = createRequest(node, cachePath, paramsCsv).execute()) {
+            assertEquals(12, response.getContentAsString().split("\n").length);
+        }
+        assertEquals(hits + 1, getCacheStats("hits"));
+    }
+
+    @Test
+    public void dumpCsvConcurrently() throws Exception {
+        paramsCsv.put("scroll", "1m");
+        paramsCsv.put("size", "1");
+        final long admitted = getSchedulerStats("admitted");
+        final ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                results.add(executor.submit(() -> {
+                    try (CurlResponse response = createRequest(node, path, paramsCsv).execute()) {
+                        return response.getContentAsString().split("\n").length;
+                    }
+                }));
+            }
+            for (final Future<Integer> result : results) {
+                assertEquals(docNumber + 1, result.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // one scan served all requests
+        assertEquals(admitted + 1, getSchedulerStats("admitted"));
+    }
+
+    @Test
+    public void dumpCsvConcurrentlyByUsers() throws Exception {
+        paramsCsv.put("scroll", "1m");
+        paramsCsv.put("size", "1");
+        final long admitted = getSchedulerStats("admitted");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                final String user = i % 2 == 0 ? "user1" : "user2";
+                results.add(executor.submit(() -> {
+                    try (CurlResponse response = createRequest(node, path, paramsCsv)
+                            .header("Authorization", "Basic " + Base64.getEncoder().encodeToString(
+                                    (user + ":secret").getBytes(Charsets.UTF_8))).execute()) {
+                        return response.getContentAsString().split("\n").length;
+                    }
+                }));
+            }
+            for (final Future<Integer> result : results) {
+                assertEquals(docNumber + 1, result.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // one scan per user
+        assertEquals(admitted + 2, getSchedulerStats("admitted"));
+        assertEquals(0, getSchedulerStats("queued_tenants"));
+    }
+
+    private long getSchedulerStats(final String name) throws IOException {
+        try (CurlResponse response = EcrCurl.get(node, "/_data/_stats").execute()) {
+            final Map<String, Object> contentAsMap = response.getContent(EcrCurl.jsonParser());
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> scheduler = (Map<String, Object>) contentAsMap.get("scheduler");
+            return ((Number) scheduler.get(name)).longValue();
+        }
+    }
+
+    private long getCacheStats(final String name) throws IOException {
+        try (CurlResponse response = EcrCurl.get(node, "/_data/_stats").execute()) {
+            final Map<String, Object> contentAsMap = response.getContent(EcrCurl.jsonParser());
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> cache = (Map<String, Object>) contentAsMap.get("cache");
+            return ((Number) cache.get(name)).longValue();
+        }
+    }
+
     @Test
     public void dumpCsvInFile() throws IOException {
         paramsCsv.put("file", csvTempFile.getAbsolutePath());
+        final Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r--r--");
+        Files.setPosixFilePermissions(csvTempFile.toPath(), permissions);
 
         // try-with-resources: java 7, ensure closing resources after try
         try (CurlResponse curlResponse = createRequest(node, path, paramsCsv).execute()) {
@@ -230,6 +693,8 @@ public class DataFormatPluginTest {
             assertEquals(docNumber + 1, lines.size());
             final String line = lines.get(0);
             assertLineContains(line, "\"aaa\"", "\"bbb\"", "\"ccc\"", "\"eee.fff\"", "\"eee.ggg\"", "\"eee.hhh\"");
+            // the header is written in front without changing the permissions
+            assertEquals(permissions, Files.getPosixFilePermissions(csvTempFile.toPath()));
         }
     }
 
@@ -302,6 +767,28 @@ public class DataFormatPluginTest {
         }
     }
 
+    @Test
+    public void dumpXlsxWithLateColumn() throws IOException {
+        final String index = "dataset_xlsx";
+        runner.createIndex(index, (Settings) null);
+        runner.insert(index, "1", "{\"aaa\":\"test 1\"}");
+        runner.insert(index, "2", "{\"aaa\":\"test 2\",\"bbb\":\"late\"}");
+        runner.refresh();
+
+        try (CurlResponse curlResponse = EcrCurl.get(node, "/" + index + "/_data").param("format", "xlsx")
+                .param("sort", "_id").param("size", "1").param("scroll", "1m").execute()) {
+            try (InputStream is = curlResponse.getContentAsStream()) {
+                final XSSFWorkbook book = new XSSFWorkbook(is);
+                final XSSFSheet sheet = book.getSheetAt(0);
+                assertEquals(2, sheet.getLastRowNum());
+                // the header row gets the column of the second hit
+                assertEquals("aaa", sheet.getRow(0).getCell(0).getStringCellValue());
+                assertEquals("bbb", sheet.getRow(0).getCell(1).getStringCellValue());
+                assertEquals("late", sheet.getRow(2).getCell(1).getStringCellValue());
+            }
+        }
+    }
+
     @Test
     public void dumpXlsInFile() throws IOException {
         paramsXls.put("file", xlsTempFile.getAbsolutePath());
@@ -317,6 +804,432 @@ public class DataFormatPluginTest {
         }
     }
 
+    @Test
+    public void dumpJsonFromRawSource() throws IOException {
+        final String index = "dataset_raw";
+        runner.createIndex(index, (Settings) null);
+        runner.insert(index, "1", "{\"aaa\" : \"test 1\"}");
+        runner.insert(index, "2", "{\n  \"aaa\" : \"test 2\"\n}");
+        runner.refresh();
+
+        try (CurlResponse curlResponse = EcrCurl.get(node, "/" + index + "/_data")
+                .header("Content-Type", "application/json").param("format", "json")
+                .param("sort", "_id").execute()) {
+            final String[] lines = curlResponse.getContentAsString().split("\n");
+            assertEquals(4, lines.length);
+            // copied as stored
+            assertEquals("{\"aaa\" : \"test 1\"}", lines[1]);
+            // reformatted to one line
+            assertEquals("{\"aaa\":\"test 2\"}", lines[3]);
+        }
+    }
+
+    @Test
+    public void dumpNdjson() throws IOException {
+        try (CurlResponse curlResponse = EcrCurl.get(node, "/dataset0/_data")
+                .header("Content-Type", "application/json").param("format", "ndjson")
+                .param("q", "bbb:7").param("ndjson.meta", "_index,_id").execute()) {
+            assertEquals("application/x-ndjson", curlResponse.getHeaderValue("Content-Type"));
+            final String[] lines = curlResponse.getContentAsString().split("\n");
+            assertEquals(1, lines.length);
+            assertTrue(lines[0].startsWith("{\"_index\":\"dataset0\",\"_id\":\"7\",\"aaa\":\"test 7\","));
+        }
+
+        try (CurlResponse curlResponse = EcrCurl.get(node, "/dataset0/_data")
+                .header("Content-Type", "application/json").param("format", "ndjson").execute()) {
+            final String[] lines = curlResponse.getContentAsString().split("\n");
+            assertEquals(docNumber, lines.length);
+            assertTrue(lines[0].startsWith("{\"aaa\""));
+        }
+
+        try (CurlResponse curlResponse = EcrCurl.get(node, "/dataset0/_data")
+                .header("Content-Type", "application/json").param("format", "ndjson")
+                .param("ndjson.meta", "_score").execute()) {
+            assertEquals(400, curlResponse.getHttpStatusCode());
+        }
+    }
+
+    /**
+     * Index the 30 documents read back by the tests of the binary formats.
+     */
+    private static void indexColumnDataset(final String index) {
+        runner.createIndex(index, (Settings) null);
+        for (int i = 1; i <= 30; i++) {
+            runner.insert(index, String.valueOf(i), "{\"name\":\"name " + i % 3 + "\",\"count\":" + i
+                    + ",\"ratio\":" + (i / 2.0) + ",\"flag\":" + (i % 2 == 0) + ",\"tags\":[\"a\",\"b" + i
+                    + "\"],\"obj\":{\"tag\":" + (i % 5 == 0 ? "null" : "\"t" + i + "\"") + "}}");
+        }
+        runner.refresh();
+    }
+
+    @Test
+    public void dumpParquet() throws IOException {
+        final String index = "dataset_parquet";
+        indexColumnDataset(index);
+
+        for (final String codec : new String[] { "none", "snappy", "gzip", "zstd" }) {
+            try (CurlResponse response = EcrCurl.get(node, "/" + index + "/_data").header("Content-Type", "application/json")
+                    .param("format", "parquet").param("parquet.compression", codec).param("scroll", "1m").param("size", "7")
+                    .param("parquet.row_group.pages", "2").param("sort", "count").execute()) {
+                assertEquals(200, response.getHttpStatusCode());
+                assertEquals("application/vnd.apache.parquet", response.getHeaderValue("Content-Type"));
+                final byte[] bytes = BytesReference.toBytes(Streams.readFully(response.getContentAsStream()));
+                assertEquals("PAR1", new String(bytes, 0, 4, Charsets.US_ASCII));
+                assertEquals("PAR1", new String(bytes, bytes.length - 4, 4, Charsets.US_ASCII));
+                if ("none".equals(codec)) {
+                    // dictionary pages of the first row group
+                    assertTrue(new String(bytes, Charsets.UTF_8).contains("name 1"));
+                }
+                assertParquetFile(bytes);
+            }
+        }
+
+        // several values of a typed field are null instead of failing the export
+        final String multiIndex = "dataset_parquet_multi";
+        runner.createIndex(multiIndex, (Settings) null);
+        runner.insert(multiIndex, "1", "{\"count\":1,\"name\":[\"a\",\"b\"]}");
+        runner.insert(multiIndex, "2", "{\"count\":[2,3],\"name\":\"c\"}");
+        runner.refresh();
+        try (CurlResponse response = EcrCurl.get(node, "/" + multiIndex + "/_data").param("format", "parquet")
+                .param("parquet.compression", "none").param("sort", "_id").execute()) {
+            assertEquals(200, response.getHttpStatusCode());
+            final byte[] bytes = BytesReference.toBytes(Streams.readFully(response.getContentAsStream()));
+            final Map<String, List<Object>> values = readParquetFile(bytes);
+            assertEquals(Arrays.asList(1L, null), values.get("count"));
+            assertEquals(Arrays.asList("[\"a\",\"b\"]", "c"), values.get("name"));
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/" + index + "/_data").header("Content-Type", "application/json")
+                .param("format", "parquet").param("parquet.compression", "lzo").execute()) {
+            assertEquals(400, response.getHttpStatusCode());
+        }
+    }
+
+    /**
+     * Read the file back with the Parquet footer and page structures: the
+     * rows of dumpParquet, sorted by count, in row groups of 14 rows.
+     */
+    private void assertParquetFile(final byte[] bytes) throws IOException {
+        final FileMetaData metaData = readParquetFooter(bytes);
+        assertEquals(30, metaData.getNum_rows());
+        assertEquals(3, metaData.getRow_groups().size());
+        final Map<String, List<Object>> values = readParquetFile(bytes);
+        for (int i = 1; i <= 30; i++) {
+            assertEquals((long) i, values.get("count").get(i - 1));
+            // a dynamic mapping maps decimals to float
+            assertEquals((float) (i / 2.0), values.get("ratio").get(i - 1));
+            assertEquals(i % 2 == 0, values.get("flag").get(i - 1));
+            assertEquals("name " + i % 3, values.get("name").get(i - 1));
+            assertEquals(i % 5 == 0 ? null : "t" + i, values.get("obj.tag").get(i - 1));
+        }
+    }
+
+    private FileMetaData readParquetFooter(final byte[] bytes) throws IOException {
+        final int footerLength = ByteBuffer.wrap(bytes, bytes.length - 8, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        return Util.readFileMetaData(new ByteArrayInputStream(bytes, bytes.length - 8 - footerLength, footerLength));
+    }
+
+    /**
+     * @return the values of all row groups by column
+     */
+    private Map<String, List<Object>> readParquetFile(final byte[] bytes) throws IOException {
+        final FileMetaData metaData = readParquetFooter(bytes);
+        final Map<String, List<Object>> values = new HashMap<>();
+        for (final RowGroup rowGroup : metaData.getRow_groups()) {
+            long rows = 0;
+            for (final ColumnChunk chunk : rowGroup.getColumns()) {
+                final ColumnMetaData column = chunk.getMeta_data();
+                rows = Math.max(rows, column.getNum_values());
+                assertTrue(column.getEncodings().contains(Encoding.RLE));
+                if (column.isSetDictionary_page_offset()) {
+                    assertTrue(column.getEncodings().contains(Encoding.PLAIN_DICTIONARY));
+                }
+                values.computeIfAbsent(String.join(".", column.getPath_in_schema()), k -> new ArrayList<>())
+                        .addAll(readParquetColumn(bytes, column));
+            }
+            assertEquals(rowGroup.getNum_rows(), rows);
+        }
+        return values;
+    }
+
+    private List<Object> readParquetColumn(final byte[] bytes, final ColumnMetaData column) throws IOException {
+        final ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        in.skip(column.isSetDictionary_page_offset() ? column.getDictionary_page_offset()
+                : column.getData_page_offset());
+        final List<Object> dictionary = new ArrayList<>();
+        final List<Object> values = new ArrayList<>();
+        while (values.size() < column.getNum_values()) {
+            final PageHeader header = Util.readPageHeader(in);
+            final byte[] compressed = new byte[header.getCompressed_page_size()];
+            assertEquals(compressed.length, in.read(compressed));
+            final byte[] page;
+            switch (column.getCodec()) {
+            case SNAPPY:
+                page = new byte[header.getUncompressed_page_size()];
+                new SnappyDecompressor().decompress(compressed, 0, compressed.length, page, 0, page.length);
+                break;
+            case ZSTD:
+                page = new byte[header.getUncompressed_page_size()];
+                new ZstdDecompressor().decompress(compressed, 0, compressed.length, page, 0, page.length);
+                break;
+            case GZIP:
+                try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                    page = BytesReference.toBytes(Streams.readFully(gzip));
+                }
+                break;
+            default:
+                assertEquals(CompressionCodec.UNCOMPRESSED, column.getCodec());
+                page = compressed;
+                break;
+            }
+            assertEquals(header.getUncompressed_page_size(), page.length);
+            final ByteBuffer buf = ByteBuffer.wrap(page).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getType() == PageType.DICTIONARY_PAGE) {
+                for (int i = 0; i < header.getDictionary_page_header().getNum_values(); i++) {
+                    dictionary.add(readPlainValue(buf, column.getType(), 0));
+                }
+                continue;
+            }
+            final DataPageHeader dataPage = header.getData_page_header();
+            final int levelsLength = buf.getInt();
+            final List<Integer> levels = readRleBitPacked(buf, buf.position() + levelsLength, 1,
+                    dataPage.getNum_values());
+            final int count = (int) levels.stream().filter(l -> l == 1).count();
+            final List<Integer> indices = dataPage.getEncoding() == Encoding.PLAIN_DICTIONARY
+                    ? readRleBitPacked(buf, page.length, buf.get(), count)
+                    : null;
+            int n = 0;
+            int bit = 0;
+            for (final Integer level : levels) {
+                if (level == 0) {
+                    values.add(null);
+                } else if (indices != null) {
+                    values.add(dictionary.get(indices.get(n++)));
+                } else {
+                    final int pos = buf.position();
+                    values.add(readPlainValue(buf, column.getType(), bit));
+                    if (column.getType() == Type.BOOLEAN) {
+                        // bit-packed booleans
+                        buf.position(pos + (++bit == 8 ? 1 : 0));
+                        bit &= 7;
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    private Object readPlainValue(final ByteBuffer buf, final Type type, final int bit) {
+        switch (type) {
+        case BOOLEAN:
+            return (buf.get(buf.position()) >> bit & 1) == 1;
+        case INT32:
+            return buf.getInt();
+        case INT64:
+            return buf.getLong();
+        case FLOAT:
+            return buf.getFloat();
+        case DOUBLE:
+            return buf.getDouble();
+        case BYTE_ARRAY:
+            final byte[] value = new byte[buf.getInt()];
+            buf.get(value);
+            return new String(value, Charsets.UTF_8);
+        default:
+            throw new AssertionError("Unexpected type: " + type);
+        }
+    }
+
+    private List<Integer> readRleBitPacked(final ByteBuffer buf, final int end, final int bitWidth, final int count) {
+        final List<Integer> values = new ArrayList<>();
+        while (buf.position() < end && values.size() < count) {
+            int header = 0;
+            for (int shift = 0;; shift += 7) {
+                final int b = buf.get() & 0xff;
+                header |= (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    break;
+                }
+            }
+            if ((header & 1) == 0) {
+                int value = 0;
+                for (int i = 0; i < (bitWidth + 7) / 8; i++) {
+                    value |= (buf.get() & 0xff) << i * 8;
+                }
+                for (int i = 0; i < header >>> 1; i++) {
+                    values.add(value);
+                }
+            } else {
+                final int total = (header >>> 1) * 8;
+                long bits = 0;
+                int available = 0;
+                for (int i = 0; i < total; i++) {
+                    while (available < bitWidth) {
+                        bits |= (long) (buf.get() & 0xff) << available;
+                        available += 8;
+                    }
+                    values.add((int) (bits & (1L << bitWidth) - 1));
+                    bits >>>= bitWidth;
+                    available -= bitWidth;
+                }
+            }
+        }
+        buf.position(end);
+        return values.subList(0, count);
+    }
+
+    @Test
+    public void dumpArrow() throws IOException {
+        final String index = "dataset_arrow";
+        indexColumnDataset(index);
+
+        try (CurlResponse response = EcrCurl.get(node, "/" + index + "/_data").header("Content-Type", "application/json")
+                .param("format", "arrow").param("scroll", "1m").param("size", "7").param("sort", "count").execute()) {
+            assertEquals(200, response.getHttpStatusCode());
+            assertEquals("application/vnd.apache.arrow.stream", response.getHeaderValue("Content-Type"));
+            final byte[] bytes = BytesReference.toBytes(Streams.readFully(response.getContentAsStream()));
+            assertEquals(0, bytes.length % 8);
+            for (int i = 0; i < 4; i++) {
+                // continuation markers of the schema and the end of stream
+                assertEquals((byte) 0xff, bytes[i]);
+                assertEquals((byte) 0xff, bytes[bytes.length - 8 + i]);
+                assertEquals(0, bytes[bytes.length - 4 + i]);
+            }
+            assertTrue(new String(bytes, Charsets.UTF_8).contains("name 1"));
+            assertArrowStream(bytes);
+        }
+
+        // several values of a typed field are null instead of failing the export
+        final String multiIndex = "dataset_arrow_multi";
+        runner.createIndex(multiIndex, (Settings) null);
+        runner.insert(multiIndex, "1", "{\"count\":1,\"name\":[\"a\",\"b\"]}");
+        runner.insert(multiIndex, "2", "{\"count\":[2,3],\"name\":\"c\"}");
+        runner.refresh();
+        try (CurlResponse response = EcrCurl.get(node, "/" + multiIndex + "/_data").param("format", "arrow")
+                .param("sort", "_id").execute()) {
+            assertEquals(200, response.getHttpStatusCode());
+            try (BufferAllocator allocator = new RootAllocator();
+                    ArrowStreamReader reader = new ArrowStreamReader(response.getContentAsStream(), allocator)) {
+                assertTrue(reader.loadNextBatch());
+                final VectorSchemaRoot root = reader.getVectorSchemaRoot();
+                final BigIntVector count = (BigIntVector) root.getVector("count");
+                final VarCharVector name = (VarCharVector) root.getVector("name");
+                assertEquals(2, root.getRowCount());
+                assertEquals(1, count.get(0));
+                assertTrue(count.isNull(1));
+                assertEquals("[\"a\",\"b\"]", name.getObject(0).toString());
+                assertEquals("c", name.getObject(1).toString());
+            }
+        }
+    }
+
+    /**
+     * Read the stream back with the Arrow reader: the rows of dumpArrow,
+     * sorted by count, in record batches of 7 rows.
+     */
+    private void assertArrowStream(final byte[] bytes) throws IOException {
+        try (BufferAllocator allocator = new RootAllocator();
+                ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(bytes), allocator)) {
+            final VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            final Schema schema = root.getSchema();
+            assertEquals(new ArrowType.Int(64, true), schema.findField("count").getType());
+            // a dynamic mapping maps decimals to float
+            assertEquals(new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE), schema.findField("ratio").getType());
+            assertEquals(ArrowType.Bool.INSTANCE, schema.findField("flag").getType());
+            assertEquals(ArrowType.Utf8.INSTANCE, schema.findField("name").getType());
+            assertEquals(ArrowType.Utf8.INSTANCE, schema.findField("obj.tag").getType());
+            int row = 0;
+            int batches = 0;
+            while (reader.loadNextBatch()) {
+                batches++;
+                final BigIntVector count = (BigIntVector) root.getVector("count");
+                final Float4Vector ratio = (Float4Vector) root.getVector("ratio");
+                final BitVector flag = (BitVector) root.getVector("flag");
+                final VarCharVector name = (VarCharVector) root.getVector("name");
+                final VarCharVector tag = (VarCharVector) root.getVector("obj.tag");
+                for (int i = 0; i < root.getRowCount(); i++) {
+                    final int n = ++row;
+                    assertEquals(n, count.get(i));
+                    assertEquals(n / 2.0f, ratio.get(i), 0.0f);
+                    assertEquals(n % 2 == 0 ? 1 : 0, flag.get(i));
+                    assertEquals("name " + n % 3, name.getObject(i).toString());
+                    if (n % 5 == 0) {
+                        assertTrue(tag.isNull(i));
+                    } else {
+                        assertEquals("t" + n, tag.getObject(i).toString());
+                    }
+                }
+            }
+            assertEquals(30, row);
+            assertEquals(5, batches);
+        }
+    }
+
+    @Test
+    public void dumpAvro() throws IOException {
+        final String index = "dataset_avro";
+        indexColumnDataset(index);
+
+        for (final String codec : new String[] { "null", "deflate", "snappy", "zstandard" }) {
+            try (CurlResponse response = EcrCurl.get(node, "/" + index + "/_data").header("Content-Type", "application/json")
+                    .param("format", "avro").param("avro.codec", codec).param("scroll", "1m").param("size", "7")
+                    .param("sort", "count").execute()) {
+                assertEquals(200, response.getHttpStatusCode());
+                assertEquals("application/avro", response.getHeaderValue("Content-Type"));
+                final byte[] bytes = BytesReference.toBytes(Streams.readFully(response.getContentAsStream()));
+                assertEquals("Obj\u0001", new String(bytes, 0, 4, Charsets.US_ASCII));
+                final String content = new String(bytes, Charsets.UTF_8);
+                // nested record in the schema
+                assertTrue(content.contains("{\"name\":\"obj\",\"type\":[\"null\",{\"type\":\"record\",\"name\":\"obj\""));
+                if ("null".equals(codec)) {
+                    assertTrue(content.contains("name 1"));
+                }
+                assertAvroFile(bytes, codec);
+            }
+        }
+
+        try (CurlResponse response = EcrCurl.get(node, "/" + index + "/_data").header("Content-Type", "application/json")
+                .param("format", "avro").param("avro.codec", "lzo").execute()) {
+            assertEquals(400, response.getHttpStatusCode());
+        }
+    }
+
+    /**
+     * Read the file back with the Avro reader: the rows of dumpAvro, sorted
+     * by count.
+     */
+    private void assertAvroFile(final byte[] bytes, final String codec) throws IOException {
+        try (DataFileReader<GenericRecord> reader = new DataFileReader<>(new SeekableByteArrayInput(bytes),
+                new GenericDatumReader<>())) {
+            assertEquals(codec, reader.getMetaString("avro.codec"));
+            final org.apache.avro.Schema schema = reader.getSchema();
+            assertEquals(org.apache.avro.Schema.Type.RECORD, schema.getType());
+            assertEquals(Arrays.asList(org.apache.avro.Schema.Type.NULL, org.apache.avro.Schema.Type.LONG,
+                    org.apache.avro.Schema.Type.ARRAY),
+                    schema.getField("count").schema().getTypes().stream().map(org.apache.avro.Schema::getType)
+                            .collect(Collectors.toList()));
+            assertEquals(org.apache.avro.Schema.Type.STRING,
+                    schema.getField("name").schema().getTypes().get(1).getType());
+            final org.apache.avro.Schema obj = schema.getField("obj").schema().getTypes().get(1);
+            assertEquals(org.apache.avro.Schema.Type.RECORD, obj.getType());
+            assertEquals(org.apache.avro.Schema.Type.STRING, obj.getField("tag").schema().getTypes().get(1).getType());
+            int row = 0;
+            for (final GenericRecord record : reader) {
+                final int n = ++row;
+                assertEquals((long) n, record.get("count"));
+                assertEquals("name " + n % 3, record.get("name").toString());
+                assertEquals(Arrays.asList("a", "b" + n), ((List<?>) record.get("tags")).stream().map(Object::toString)
+                        .collect(Collectors.toList()));
+                if (n % 5 == 0) {
+                    assertEquals(null, record.get("obj"));
+                } else {
+                    assertEquals("t" + n, ((GenericRecord) record.get("obj")).get("tag").toString());
+                }
+            }
+            assertEquals(30, row);
+        }
+    }
+
     @Test
     public void dumpJson() throws IOException {
 
@@ -527,7 +1440,7 @@ public class DataFormatPluginTest {
     }
 
     @Test
-    public void dumpSizeLimit() throws IOException {
+    public void dumpSizeLimit() throws Exception {
 
         // Default
         try (CurlResponse curlResponse = EcrCurl.get(node, "/dataset0/_data")
@@ -553,6 +1466,32 @@ public class DataFormatPluginTest {
                 .param("format", "csv").param("limit", "0").execute()) {
             assertEquals(500, curlResponse.getHttpStatusCode());
         }
+
+        // max_rows
+        try (CurlResponse curlResponse = EcrCurl.get(node, "/dataset0/_data")
+                .header("Content-Type", "application/json")
+                .param("format", "csv").param("scroll", "1m").param("size", "10")
+                .param("max_rows", String.valueOf(docNumber)).execute()) {
+            assertEquals(200, curlResponse.getHttpStatusCode());
+        }
+        try (CurlResponse curlResponse = EcrCurl.get(node, "/dataset0/_data")
+                .header("Content-Type", "application/json")
+                .param("format", "csv").param("scroll", "1m").param("size", "10")
+                .param("max_rows", "10").execute()) {
+            assertEquals(400, curlResponse.getHttpStatusCode());
+        }
+        // aborted after 3 of 20 pages, and the scroll is cleared
+        try (CurlResponse curlResponse = EcrCurl.get(node, "/dataset0/_data")
+                .header("Content-Type", "application/json")
+                .param("format", "csv").param("scroll", "1m").param("size", "1")
+                .param("max_rows", "3").execute()) {
+            assertEquals(400, curlResponse.getHttpStatusCode());
+            assertTrue(curlResponse.getContentAsString().contains("max_rows 3"));
+        }
+        for (int i = 0; i < 100 && getOpenSearchContexts() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, getOpenSearchContexts());
     }
 
     private static void indexing() {
@@ -631,6 +1570,8 @@ public class DataFormatPluginTest {
             assertEquals(docNumber + 1, lines.length);
             assertLineContains(lines[0], "\"aaa\"", "\"eee.ggg\"");
             assertLineNotContains(lines[0], "\"bbb\"", "\"ccc\"", "\"eee.fff\"", "\"eee.hhh\"");
+            // values read from the source bytes
+            assertTrue(lines[1], lines[1].matches("\"test (\\d+)\",\"\\1\""));
         }
     }
 